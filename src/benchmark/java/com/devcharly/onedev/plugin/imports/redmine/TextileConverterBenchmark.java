@@ -0,0 +1,68 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Throughput of {@link RedmineTextileConverter} over the corpus in <tt>textile-corpus</tt>.
+ * Each corpus file holds one or more documents separated by a line <tt>%%%%</tt>. The corpus
+ * lives with the tests, where <tt>RedmineTextileConverterTest</tt> checks its conversion
+ * against the golden <tt>.md</tt> files.
+ * <p>
+ * Run with <tt>mvn -Pbenchmark compile exec:exec</tt>. JMH options can be passed with
+ * <tt>-Dbenchmark="TextileConverterBenchmark -p corpus=log-100k -prof gc"</tt>, the gc
+ * profiler reporting allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextileConverterBenchmark {
+
+	private static final Pattern DOCUMENT_SEPARATOR = Pattern.compile("\n%%%%\n");
+
+	@Param({"short-notes", "log-100k", "code-dump", "nested-lists"})
+	public String corpus;
+
+	private String[] documents;
+
+	@Setup
+	public void setup() throws IOException {
+		documents = DOCUMENT_SEPARATOR.split(read(corpus + ".textile"), -1);
+	}
+
+	@Benchmark
+	public void convert(Blackhole blackhole) {
+		for (String document: documents)
+			blackhole.consume(RedmineTextileConverter.convertTextileToMarkdown(document));
+	}
+
+	private static String read(String name) throws IOException {
+		try (InputStream is = TextileConverterBenchmark.class.getResourceAsStream("/textile-corpus/" + name)) {
+			if (is == null)
+				throw new IOException("Corpus file not found: " + name);
+			return new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+		}
+	}
+
+}
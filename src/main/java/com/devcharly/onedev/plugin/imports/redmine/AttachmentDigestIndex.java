@@ -0,0 +1,129 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Where imported attachments are stored in OneDev, keyed by the digest and size Redmine
+ * reports for their content. Kept in the OneDev site directory, so that an attachment
+ * added to many issues, possibly of several projects, is downloaded only once and
+ * copied from the stored file afterwards.
+ */
+class AttachmentDigestIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(AttachmentDigestIndex.class);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final File file;
+
+	private Map<String, Location> locations;
+
+	private boolean dirty;
+
+	AttachmentDigestIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return key of an attachment node, or <tt>null</tt> if Redmine reports no digest
+	 */
+	@Nullable
+	static String getKey(JsonNode attachmentNode) {
+		String digest = attachmentNode.path("digest").asText("");
+		if (digest.isEmpty())
+			return null;
+		return digest + ":" + attachmentNode.get("filesize").asLong();
+	}
+
+	@Nullable
+	synchronized Location get(String key) {
+		if (locations == null)
+			locations = load();
+		return locations.get(key);
+	}
+
+	synchronized void put(String key, Location location) {
+		if (locations == null)
+			locations = load();
+		locations.put(key, location);
+		dirty = true;
+	}
+
+	synchronized void remove(String key) {
+		if (locations != null && locations.remove(key) != null)
+			dirty = true;
+	}
+
+	synchronized void save() {
+		if (!dirty)
+			return;
+		ObjectNode root = JsonNodeFactory.instance.objectNode();
+		for (Map.Entry<String, Location> entry: locations.entrySet()) {
+			ObjectNode node = root.putObject(entry.getKey());
+			node.put("projectId", entry.getValue().projectId);
+			node.put("group", entry.getValue().group);
+			node.put("name", entry.getValue().name);
+		}
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			MAPPER.writeValue(tempFile, root);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		} catch (IOException e) {
+			logger.warn("Error saving attachment digest index: " + file, e);
+			tempFile.delete();
+		}
+	}
+
+	private Map<String, Location> load() {
+		Map<String, Location> locations = new HashMap<>();
+		if (file.exists()) {
+			try {
+				for (Iterator<Map.Entry<String, JsonNode>> it = MAPPER.readTree(file).fields(); it.hasNext();) {
+					Map.Entry<String, JsonNode> field = it.next();
+					JsonNode node = field.getValue();
+					locations.put(field.getKey(), new Location(node.get("projectId").asLong(),
+							node.get("group").asText(), node.get("name").asText()));
+				}
+			} catch (IOException|RuntimeException e) {
+				logger.warn("Error reading attachment digest index, discarding it: " + file, e);
+				locations.clear();
+			}
+		}
+		return locations;
+	}
+
+	static class Location {
+
+		final Long projectId;
+
+		final String group;
+
+		final String name;
+
+		Location(Long projectId, String group, String name) {
+			this.projectId = projectId;
+			this.group = group;
+			this.name = name;
+		}
+
+	}
+
+}
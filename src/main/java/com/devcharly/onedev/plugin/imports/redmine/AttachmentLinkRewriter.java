@@ -0,0 +1,82 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Rewrites references to Redmine attachments in converted markdown, written as
+ * <tt>(filename)</tt> by link and image syntax, to the URLs of the imported attachments.
+ * <p>
+ * Attachment names are kept in a trie, so all references are found in one scan over the
+ * text whatever the number of attachments. Names may contain parentheses themselves, so
+ * the longest name followed by a closing parenthesis wins.
+ */
+class AttachmentLinkRewriter {
+
+	private final Node root = new Node();
+
+	private boolean empty = true;
+
+	/**
+	 * Add an attachment. An earlier attachment of the same name takes precedence.
+	 */
+	void add(String attachmentName, String url) {
+		if (attachmentName.isEmpty())
+			return;
+		Node node = root;
+		for (int i = 0; i < attachmentName.length(); i++)
+			node = node.children.computeIfAbsent(attachmentName.charAt(i), c -> new Node());
+		if (node.url == null) {
+			node.url = url;
+			empty = false;
+		}
+	}
+
+	@Nullable
+	String rewrite(@Nullable String markdown) {
+		if (markdown == null || empty)
+			return markdown;
+
+		StringBuilder builder = null;
+		int copied = 0;
+		int index = markdown.indexOf('(');
+		while (index != -1) {
+			// find the longest attachment name between this parenthesis and a closing one
+			Node node = root;
+			String url = null;
+			int end = -1;
+			for (int i = index + 1; i < markdown.length(); i++) {
+				node = node.children.get(markdown.charAt(i));
+				if (node == null)
+					break;
+				if (node.url != null && i + 1 < markdown.length() && markdown.charAt(i + 1) == ')') {
+					url = node.url;
+					end = i + 1;
+				}
+			}
+			if (url != null) {
+				if (builder == null)
+					builder = new StringBuilder(markdown.length() + 64);
+				builder.append(markdown, copied, index + 1).append(url);
+				copied = end;
+				index = markdown.indexOf('(', end + 1);
+			} else {
+				index = markdown.indexOf('(', index + 1);
+			}
+		}
+		if (builder == null)
+			return markdown;
+		return builder.append(markdown, copied, markdown.length()).toString();
+	}
+
+	private static class Node {
+
+		final Map<Character, Node> children = new HashMap<>(4);
+
+		String url;
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+/**
+ * Pauses all requests of an endpoint family while Redmine is overloaded.
+ * <p>
+ * The breaker opens after a number of consecutive failures or when the server asked
+ * to retry later, and lets requests pass again once the cool down elapsed. A failure
+ * right after the cool down opens it again, a success closes it.
+ */
+class CircuitBreaker {
+
+	private static final int FAILURE_THRESHOLD = 5;
+
+	private static final long OPEN_MILLIS = 30000;
+
+	private final String family;
+
+	private int consecutiveFailures;
+
+	private long openUntil;
+
+	CircuitBreaker(String family) {
+		this.family = family;
+	}
+
+	String getFamily() {
+		return family;
+	}
+
+	synchronized void onSuccess() {
+		consecutiveFailures = 0;
+	}
+
+	/**
+	 * @return <tt>true</tt> if this failure opened the breaker
+	 */
+	synchronized boolean onFailure(long retryAfterMillis) {
+		long now = System.currentTimeMillis();
+		boolean wasOpen = openUntil > now;
+		if (++consecutiveFailures >= FAILURE_THRESHOLD)
+			openUntil = Math.max(openUntil, now + OPEN_MILLIS);
+		if (retryAfterMillis > 0)
+			openUntil = Math.max(openUntil, now + retryAfterMillis);
+		return !wasOpen && openUntil > now;
+	}
+
+	synchronized long getRemainingOpenMillis() {
+		return Math.max(0, openUntil - System.currentTimeMillis());
+	}
+
+	void awaitClosed() throws InterruptedException {
+		long remaining;
+		while ((remaining = getRemainingOpenMillis()) > 0)
+			Thread.sleep(remaining);
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+
+import com.google.common.hash.Hashing;
+
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.system.SystemStopping;
+
+/**
+ * Keeps one client per API URL and access token. The default Jersey connector keeps idle
+ * connections in the JDK keep-alive cache, so sharing the client lets TLS sessions and
+ * connections be reused across requests. Concurrent connections per host are limited,
+ * and clients idle for a while are closed. Readers of Redmine databases are shared and
+ * closed the same way.
+ */
+@Singleton
+public class DefaultRedmineConnectionManager implements RedmineConnectionManager {
+
+	static final int MAX_CONNECTIONS_PER_HOST = 16;
+
+	private static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+	private static final int READ_TIMEOUT_MILLIS = 300000;
+
+	private static final long RESPONSE_CACHE_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+	private final Map<String, RedmineConnection> connections = new ConcurrentHashMap<>();
+
+	private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+	private final Map<String, ReferenceDataCache> referenceDataCaches = new ConcurrentHashMap<>();
+
+	private final Map<String, ResponseDiskCache> responseDiskCaches = new ConcurrentHashMap<>();
+
+	private final Map<String, RedmineIdentityMap> identityMaps = new ConcurrentHashMap<>();
+
+	private volatile AttachmentDigestIndex attachmentDigestIndex;
+
+	private final Map<String, RedmineDatabase> databases = new ConcurrentHashMap<>();
+
+	@Override
+	public RedmineConnection getConnection(ImportServer server) {
+		evictIdleConnections();
+		RedmineConnection connection = connections.computeIfAbsent(getKey(server), k -> {
+			String host = URI.create(server.getApiEndpoint("/")).getAuthority();
+			Semaphore permits = hostPermits.computeIfAbsent(String.valueOf(host),
+					h -> new Semaphore(MAX_CONNECTIONS_PER_HOST, true));
+			return new RedmineConnection(newClient(server), permits);
+		});
+		connection.touch();
+		return connection;
+	}
+
+	@Override
+	public ReferenceDataCache getReferenceDataCache(ImportServer server) {
+		return referenceDataCaches.computeIfAbsent(getKey(server), k -> new ReferenceDataCache());
+	}
+
+	@Override
+	public ResponseDiskCache getResponseDiskCache(ImportServer server) {
+		if (!server.isCacheResponses())
+			return null;
+		return responseDiskCaches.computeIfAbsent(getKey(server), k -> {
+			File dir = new File(Bootstrap.getSiteDir(), "redmine-import/cache/" + getScope(k));
+			return new ResponseDiskCache(dir, RESPONSE_CACHE_MAX_SIZE);
+		});
+	}
+
+	@Override
+	public RedmineIdentityMap getIdentityMap(ImportServer server) {
+		if (server.getRememberUsersDays() == 0)
+			return null;
+		long ttlMillis = TimeUnit.DAYS.toMillis(server.getRememberUsersDays());
+		return identityMaps.compute(getKey(server), (k, identityMap) -> {
+			if (identityMap == null || identityMap.getTtlMillis() != ttlMillis) {
+				File file = new File(Bootstrap.getSiteDir(), "redmine-import/identities/" + getScope(k) + ".json");
+				identityMap = new RedmineIdentityMap(file, ttlMillis);
+			}
+			return identityMap;
+		});
+	}
+
+	@Override
+	public AttachmentDigestIndex getAttachmentDigestIndex() {
+		if (attachmentDigestIndex == null) {
+			synchronized (this) {
+				if (attachmentDigestIndex == null) {
+					File file = new File(Bootstrap.getSiteDir(), "redmine-import/attachment-digests.json");
+					attachmentDigestIndex = new AttachmentDigestIndex(file);
+				}
+			}
+		}
+		return attachmentDigestIndex;
+	}
+
+	@Override
+	public RedmineDatabase getDatabase(ImportServer server) {
+		if (!server.isReadDatabase())
+			return null;
+		evictIdleConnections();
+		return databases.computeIfAbsent(server.getApiUrl() + "\n" + server.getDatabaseUrl() + "\n" + server.getDatabaseUser() + "\n"
+				+ server.getDatabasePassword() + "\n" + server.getFilesDirectory(), k -> new RedmineDatabase(server));
+	}
+
+	private static String getKey(ImportServer server) {
+		return server.getApiUrl() + "\n" + server.getAccessToken();
+	}
+
+	/*
+	 * Scope persisted data per server and access token, as visibility depends on both.
+	 */
+	private static String getScope(String key) {
+		return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString().substring(0, 16);
+	}
+
+	private Client newClient(ImportServer server) {
+		Client client = ClientBuilder.newClient();
+		client.property(ClientProperties.FOLLOW_REDIRECTS, true);
+		client.property(ClientProperties.CONNECT_TIMEOUT, CONNECT_TIMEOUT_MILLIS);
+		client.property(ClientProperties.READ_TIMEOUT, READ_TIMEOUT_MILLIS);
+		client.register(HttpAuthenticationFeature.basic(server.getAccessToken(), "dummy"));
+		return client;
+	}
+
+	private void evictIdleConnections() {
+		long threshold = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+		for (Iterator<RedmineConnection> it = connections.values().iterator(); it.hasNext();) {
+			RedmineConnection connection = it.next();
+			if (connection.isIdleSince(threshold)) {
+				it.remove();
+				connection.close();
+			}
+		}
+		for (Iterator<RedmineDatabase> it = databases.values().iterator(); it.hasNext();) {
+			RedmineDatabase database = it.next();
+			if (database.isIdleSince(threshold)) {
+				it.remove();
+				database.closeConnection();
+			}
+		}
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		for (RedmineConnection connection: connections.values())
+			connection.close();
+		connections.clear();
+		for (RedmineDatabase database: databases.values())
+			database.closeConnection();
+		databases.clear();
+	}
+
+}
@@ -1,10 +1,13 @@
 package com.devcharly.onedev.plugin.imports.redmine;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 
+import javax.annotation.Nullable;
 import javax.validation.ConstraintValidatorContext;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
@@ -12,13 +15,16 @@ import javax.ws.rs.core.Response;
 import io.onedev.server.annotation.ClassValidating;
 import io.onedev.server.annotation.Editable;
 import io.onedev.server.annotation.Password;
+import io.onedev.server.annotation.ShowCondition;
+import io.onedev.server.util.EditContext;
 import io.onedev.server.validation.Validatable;
 import org.apache.wicket.MetaDataKey;
-import org.glassfish.jersey.client.ClientProperties;
-import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.OneDev;
 import io.onedev.server.util.JerseyUtils;
 
 @Editable
@@ -41,6 +47,32 @@ public class ImportServer implements Serializable, Validatable {
 
 	private String accessToken = "";
 
+	private int pageConcurrency = 4;
+
+	private int detailConcurrency = 8;
+
+	private int attachmentConcurrency = 4;
+
+	private int attachmentBudget = 256;
+
+	private boolean cacheResponses;
+
+	private int rememberUsersDays = 7;
+
+	private SnapshotMode snapshotMode = SnapshotMode.NONE;
+
+	private String snapshotFile;
+
+	private boolean readDatabase;
+
+	private String databaseUrl;
+
+	private String databaseUser;
+
+	private String databasePassword;
+
+	private String filesDirectory;
+
 	@Editable(order=10, name="Redmine API URL", description="Specify Redmine API url, for instance <tt>https://api.redmine.com</tt>")
 	@NotEmpty
 	public String getApiUrl() {
@@ -62,17 +94,268 @@ public class ImportServer implements Serializable, Validatable {
 		this.accessToken = accessToken;
 	}
 
+	@Editable(order=200, name="Concurrent Page Requests", description="Number of list pages fetched concurrently "
+			+ "once Redmine reported the total count. Pages are still processed in order. Use 1 to fetch pages one by one")
+	@Min(1)
+	public int getPageConcurrency() {
+		return pageConcurrency;
+	}
+
+	public void setPageConcurrency(int pageConcurrency) {
+		this.pageConcurrency = pageConcurrency;
+	}
+
+	@Editable(order=210, name="Concurrent Issue Detail Requests", description="Number of issue detail requests "
+			+ "(journals, attachments, relations and watchers) issued ahead while issues of a page are imported. "
+			+ "Issues are still imported in ID order. Use 1 to fetch details one by one")
+	@Min(1)
+	public int getDetailConcurrency() {
+		return detailConcurrency;
+	}
+
+	public void setDetailConcurrency(int detailConcurrency) {
+		this.detailConcurrency = detailConcurrency;
+	}
+
+	@Editable(order=220, name="Concurrent Attachment Downloads", description="Number of attachments downloaded "
+			+ "concurrently while further issues are imported")
+	@Min(1)
+	public int getAttachmentConcurrency() {
+		return attachmentConcurrency;
+	}
+
+	public void setAttachmentConcurrency(int attachmentConcurrency) {
+		this.attachmentConcurrency = attachmentConcurrency;
+	}
+
+	@Editable(order=230, name="Attachment Download Budget (MB)", description="Total size of attachments queued "
+			+ "or being downloaded at a time. Importing of further issues waits while this is used up")
+	@Min(1)
+	public int getAttachmentBudget() {
+		return attachmentBudget;
+	}
+
+	public void setAttachmentBudget(int attachmentBudget) {
+		this.attachmentBudget = attachmentBudget;
+	}
+
+	@Editable(order=300, name="Cache Issue Details on Disk", description="If enabled, issue details fetched from Redmine "
+			+ "are kept in the OneDev site directory and reused by later runs (for instance the real run after a dry run) "
+			+ "as long as the issue was not updated in Redmine")
+	public boolean isCacheResponses() {
+		return cacheResponses;
+	}
+
+	public void setCacheResponses(boolean cacheResponses) {
+		this.cacheResponses = cacheResponses;
+	}
+
+	@Editable(order=310, name="Remember Users for Days", description="Redmine users resolved by an import, "
+			+ "including users Redmine does not know, and the OneDev accounts chosen for them are kept in the OneDev "
+			+ "site directory for this number of days, so that imports of other projects from this server do not "
+			+ "resolve them again. Use 0 to resolve users on every import")
+	@Min(0)
+	public int getRememberUsersDays() {
+		return rememberUsersDays;
+	}
+
+	public void setRememberUsersDays(int rememberUsersDays) {
+		this.rememberUsersDays = rememberUsersDays;
+	}
+
+	@Editable(order=400, name="Snapshot", description="<b>Record</b> stores every response fetched during the import "
+			+ "in a snapshot file. <b>Replay</b> imports from a recorded snapshot without contacting Redmine, for "
+			+ "instance to tune import options or to import the same data into several projects")
+	@NotNull
+	public SnapshotMode getSnapshotMode() {
+		return snapshotMode;
+	}
+
+	public void setSnapshotMode(SnapshotMode snapshotMode) {
+		this.snapshotMode = snapshotMode;
+	}
+
+	@Editable(order=410, name="Snapshot File", description="Name of the file in directory "
+			+ "<tt>redmine-import/snapshots</tt> under OneDev site directory. Recording overwrites an existing file")
+	@ShowCondition("isSnapshotEnabled")
+	@NotEmpty
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	private static boolean isSnapshotEnabled() {
+		return EditContext.get().getInputValue("snapshotMode") != SnapshotMode.NONE;
+	}
+
+	@Editable(order=500, name="Read Redmine Database", description="If enabled, issues, users and attachments are "
+			+ "read directly from the Redmine database and files directory instead of the REST API. This is much "
+			+ "faster for large Redmine instances. Redmine API URL is still used to build links to original issues")
+	public boolean isReadDatabase() {
+		return readDatabase;
+	}
+
+	public void setReadDatabase(boolean readDatabase) {
+		this.readDatabase = readDatabase;
+	}
+
+	@Editable(order=510, name="Database JDBC URL", description="For instance <tt>jdbc:postgresql://localhost:5432/redmine</tt> "
+			+ "or <tt>jdbc:mysql://localhost:3306/redmine</tt>. The database is only read. Only PostgreSQL, MySQL, "
+			+ "MariaDB and SQL Server URLs are accepted, and driver options able to load classes or access local "
+			+ "files are rejected")
+	@ShowCondition("isReadDatabaseEnabled")
+	@NotEmpty
+	public String getDatabaseUrl() {
+		return databaseUrl;
+	}
+
+	public void setDatabaseUrl(String databaseUrl) {
+		this.databaseUrl = databaseUrl;
+	}
+
+	@Editable(order=520, name="Database User")
+	@ShowCondition("isReadDatabaseEnabled")
+	public String getDatabaseUser() {
+		return databaseUser;
+	}
+
+	public void setDatabaseUser(String databaseUser) {
+		this.databaseUser = databaseUser;
+	}
+
+	@Editable(order=530, name="Database Password")
+	@ShowCondition("isReadDatabaseEnabled")
+	@Password
+	public String getDatabasePassword() {
+		return databasePassword;
+	}
+
+	public void setDatabasePassword(String databasePassword) {
+		this.databasePassword = databasePassword;
+	}
+
+	@Editable(order=540, name="Redmine Files Directory", description="Directory Redmine stores attachments in, "
+			+ "<tt>files</tt> under Redmine installation directory by default. It must be readable by OneDev server")
+	@ShowCondition("isReadDatabaseEnabled")
+	@NotEmpty
+	public String getFilesDirectory() {
+		return filesDirectory;
+	}
+
+	public void setFilesDirectory(String filesDirectory) {
+		this.filesDirectory = filesDirectory;
+	}
+
+	private static boolean isReadDatabaseEnabled() {
+		return (Boolean) EditContext.get().getInputValue("readDatabase");
+	}
+
+	/**
+	 * @throws ExplicitException if snapshot file is not a plain file name, as recording
+	 * 			must not overwrite files outside of the snapshots directory
+	 */
+	private File getSnapshotPath() {
+		if (snapshotFile.isEmpty() || snapshotFile.contains("/") || snapshotFile.contains("\\")
+				|| snapshotFile.contains(":") || snapshotFile.contains("..") || new File(snapshotFile).isAbsolute()) {
+			throw new ExplicitException("Snapshot file should be a file name without directory");
+		}
+		try {
+			File dir = new File(Bootstrap.getSiteDir(), "redmine-import/snapshots").getCanonicalFile();
+			File file = new File(dir, snapshotFile).getCanonicalFile();
+			if (!dir.equals(file.getParentFile()))
+				throw new ExplicitException("Snapshot file should be a file name without directory");
+			return file;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param importing	<tt>true</tt> when opened for the actual import, which is the only
+	 * 					phase that records
+	 * @return snapshot to record to or replay from, or <tt>null</tt> if Redmine should be
+	 * 			contacted directly without recording
+	 */
+	@Nullable
+	RedmineSnapshot openSnapshot(boolean importing) {
+		try {
+			if (snapshotMode == SnapshotMode.REPLAY)
+				return RedmineSnapshot.replay(getSnapshotPath());
+			else if (snapshotMode == SnapshotMode.RECORD && importing)
+				return RedmineSnapshot.record(getSnapshotPath());
+			else
+				return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public String getApiEndpoint(String apiPath) {
 		return StringUtils.stripEnd(apiUrl, "/") + "/" + StringUtils.stripStart(apiPath, "/");
 	}
 
 	@Override
 	public boolean isValid(ConstraintValidatorContext context) {
-		Client client = ClientBuilder.newClient();
-		client.register(HttpAuthenticationFeature.basic(getAccessToken(), "dummy"));
+		if (snapshotMode != SnapshotMode.NONE && snapshotFile != null) {
+			String errorMessage;
+			try {
+				errorMessage = snapshotMode == SnapshotMode.REPLAY && !getSnapshotPath().exists()
+						? "Snapshot file not found" : null;
+			} catch (ExplicitException e) {
+				errorMessage = e.getMessage();
+			}
+			if (errorMessage != null) {
+				context.disableDefaultConstraintViolation();
+				context.buildConstraintViolationWithTemplate(errorMessage)
+						.addPropertyNode("snapshotFile").addConstraintViolation();
+				return false;
+			}
+		}
+		// replay never contacts Redmine
+		if (snapshotMode == SnapshotMode.REPLAY)
+			return true;
+
+		if (readDatabase) {
+			try {
+				RedmineDatabase.checkUrl(databaseUrl != null ? databaseUrl : "");
+			} catch (ExplicitException e) {
+				context.disableDefaultConstraintViolation();
+				context.buildConstraintViolationWithTemplate(e.getMessage())
+						.addPropertyNode("databaseUrl").addConstraintViolation();
+				return false;
+			}
+			try {
+				OneDev.getInstance(RedmineConnectionManager.class).getDatabase(this).check();
+			} catch (Exception e) {
+				context.disableDefaultConstraintViolation();
+				String errorMessage = "Error reading Redmine database";
+				if (e.getCause() != null && e.getCause().getMessage() != null)
+					errorMessage += ": " + e.getCause().getMessage();
+				context.buildConstraintViolationWithTemplate(errorMessage)
+						.addPropertyNode("databaseUrl").addConstraintViolation();
+				return false;
+			}
+			if (!new File(filesDirectory).isDirectory()) {
+				context.disableDefaultConstraintViolation();
+				context.buildConstraintViolationWithTemplate("Directory not found")
+						.addPropertyNode("filesDirectory").addConstraintViolation();
+				return false;
+			}
+			return true;
+		}
+
+		RedmineConnection connection = OneDev.getInstance(RedmineConnectionManager.class).getConnection(this);
+		try {
+			connection.acquire();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
 		try {
 			String apiEndpoint = getApiEndpoint("/users/current.json");
-			WebTarget target = client.target(apiEndpoint);
+			WebTarget target = connection.getClient().target(apiEndpoint);
 			Invocation.Builder builder =  target.request();
 			try (Response response = builder.get()) {
 				if (!response.getMediaType().toString().startsWith("application/json")
@@ -106,16 +389,11 @@ public class ImportServer implements Serializable, Validatable {
 					.addPropertyNode(PROP_API_URL).addConstraintViolation();
 			return false;
 		} finally {
-			client.close();
+			connection.release();
 		}
 		return true;
 	}
 
-	Client newClient() {
-		Client client = ClientBuilder.newClient();
-		client.property(ClientProperties.FOLLOW_REDIRECTS, true);
-		client.register(HttpAuthenticationFeature.basic(getAccessToken(), "dummy"));
-		return client;
-	}
+	public static enum SnapshotMode {NONE, RECORD, REPLAY}
 
 }
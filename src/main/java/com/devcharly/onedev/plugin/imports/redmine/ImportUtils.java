@@ -2,7 +2,9 @@ package com.devcharly.onedev.plugin.imports.redmine;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.OneDev;
@@ -19,33 +21,54 @@ import io.onedev.server.model.support.issue.LinkSpecOpposite;
 import io.onedev.server.model.support.issue.changedata.*;
 import io.onedev.server.model.support.issue.field.spec.FieldSpec;
 import io.onedev.server.model.support.issue.field.spec.choicefield.ChoiceField;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.persistence.dao.Dao;
 import io.onedev.server.util.Input;
-import io.onedev.server.util.JerseyUtils;
 import io.onedev.server.util.Pair;
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.Session;
 import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unbescape.html.HtmlEscape;
 
 import javax.annotation.Nullable;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class ImportUtils {
 
 	static final String NAME = "Redmine";
 
+	// initial page size, RedmineClient tunes it per endpoint at runtime
 	static final int PER_PAGE = 50;
 
+	// issues listed ahead of the detail stage
+	private static final int LIST_QUEUE_CAPACITY = 500;
+
+	// smallest share of the attachment byte budget taken by a download, so that small
+	// attachments do not pile up waiting tasks
+	private static final int MIN_ATTACHMENT_CHARGE_KB = 1024;
+
+	private static final Pattern ISSUE_REFERENCE = Pattern.compile("#(\\d+)");
+
 	private static final Logger sl4jLogger = LoggerFactory.getLogger(ImportUtils.class);
 
 
@@ -87,84 +110,93 @@ public class ImportUtils {
 		};
 
 		IssueImportOption importOption = new IssueImportOption();
-		Client client = server.newClient();
+		RedmineClient rc = new RedmineClient(server, logger);
 
-		RedmineClient rc = new RedmineClient(client, logger);
+		Set<String> statuses = new LinkedHashSet<>();
+		Set<String> trackers = new LinkedHashSet<>();
+		Set<String> priorities = new LinkedHashSet<>();
+		Set<String> customFields = new LinkedHashSet<>();
+		// a replayed snapshot also provides the reference data offered for mapping
+		try (RedmineSnapshot snapshot = server.openSnapshot(false)) {
+			rc.setSnapshot(snapshot);
 
-		try {
-			Set<String> statuses = new LinkedHashSet<>();
 			String statusesApiEndpoint = server.getApiEndpoint("/issue_statuses.json");
-			for (JsonNode trackerNode: rc.list(statusesApiEndpoint, "issue_statuses"))
+			for (JsonNode trackerNode: rc.listReference(statusesApiEndpoint, "issue_statuses"))
 				statuses.add(trackerNode.get("name").asText());
 
-			Set<String> trackers = new LinkedHashSet<>();
 			String trackersApiEndpoint = server.getApiEndpoint("/trackers.json");
-			for (JsonNode trackerNode: rc.list(trackersApiEndpoint, "trackers"))
+			for (JsonNode trackerNode: rc.listReference(trackersApiEndpoint, "trackers"))
 				trackers.add(trackerNode.get("name").asText());
 
-			Set<String> priorities = new LinkedHashSet<>();
 			String prioritiesApiEndpoint = server.getApiEndpoint("/enumerations/issue_priorities.json");
-			for (JsonNode priorityNode: rc.list(prioritiesApiEndpoint, "issue_priorities"))
+			for (JsonNode priorityNode: rc.listReference(prioritiesApiEndpoint, "issue_priorities"))
 				priorities.add(priorityNode.get("name").asText());
 
-			Set<String> customFields = new LinkedHashSet<>();
 			String customFieldsApiEndpoint = server.getApiEndpoint("/custom_fields.json");
-			for (JsonNode priorityNode: rc.list(customFieldsApiEndpoint, "custom_fields")) {
+			for (JsonNode priorityNode: rc.listReference(customFieldsApiEndpoint, "custom_fields")) {
 				if ("issue".equals(priorityNode.get("customized_type").asText()))
 					customFields.add(priorityNode.get("name").asText());
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 
-			List<String> stateChoices = IssueStatusMapping.getOneDevIssueStateChoices();
-			for (String status: statuses) {
-				String defaultState = stateChoices.contains(status)
-						? status
-						: statusDefaultFields.get(status);
-				IssueStatusMapping mapping = new IssueStatusMapping();
-				mapping.setRedmineIssueStatus(status);
-				mapping.setOneDevIssueState(defaultState);
-				importOption.getIssueStatusMappings().add(mapping);
-			}
+		List<String> stateChoices = IssueStatusMapping.getOneDevIssueStateChoices();
+		for (String status: statuses) {
+			String defaultState = stateChoices.contains(status)
+					? status
+					: statusDefaultFields.get(status);
+			IssueStatusMapping mapping = new IssueStatusMapping();
+			mapping.setRedmineIssueStatus(status);
+			mapping.setOneDevIssueState(defaultState);
+			importOption.getIssueStatusMappings().add(mapping);
+		}
 
-			List<String> trackerFieldChoices = IssueTrackerMapping.getOneDevIssueFieldChoices();
-			for (String tracker: trackers) {
-				String defaultField = trackerFieldChoices.contains("Type::" + tracker)
-						? "Type::" + tracker
-						: trackerDefaultFields.get(tracker);
-				IssueTrackerMapping mapping = new IssueTrackerMapping();
-				mapping.setRedmineIssueTracker(tracker);
-				mapping.setOneDevIssueField(defaultField);
-				importOption.getIssueTrackerMappings().add(mapping);
-			}
+		List<String> trackerFieldChoices = IssueTrackerMapping.getOneDevIssueFieldChoices();
+		for (String tracker: trackers) {
+			String defaultField = trackerFieldChoices.contains("Type::" + tracker)
+					? "Type::" + tracker
+					: trackerDefaultFields.get(tracker);
+			IssueTrackerMapping mapping = new IssueTrackerMapping();
+			mapping.setRedmineIssueTracker(tracker);
+			mapping.setOneDevIssueField(defaultField);
+			importOption.getIssueTrackerMappings().add(mapping);
+		}
 
-			List<String> priorityFieldChoices = IssuePriorityMapping.getOneDevIssueFieldChoices();
-			for (String priority: priorities) {
-				String defaultField = priorityFieldChoices.contains("Priority::" + priority)
-						? "Priority::" + priority
-						: priorityDefaultFields.get(priority);
-				IssuePriorityMapping mapping = new IssuePriorityMapping();
-				mapping.setRedmineIssuePriority(priority);
-				mapping.setOneDevIssueField(defaultField);
-				importOption.getIssuePriorityMappings().add(mapping);
-			}
+		List<String> priorityFieldChoices = IssuePriorityMapping.getOneDevIssueFieldChoices();
+		for (String priority: priorities) {
+			String defaultField = priorityFieldChoices.contains("Priority::" + priority)
+					? "Priority::" + priority
+					: priorityDefaultFields.get(priority);
+			IssuePriorityMapping mapping = new IssuePriorityMapping();
+			mapping.setRedmineIssuePriority(priority);
+			mapping.setOneDevIssueField(defaultField);
+			importOption.getIssuePriorityMappings().add(mapping);
+		}
 
-			List<String> customFieldFieldChoices = IssueFieldMapping.getOneDevIssueFieldChoices();
-			for (String customField: customFields) {
-				String defaultField = customFieldFieldChoices.contains(customField)
-						? customField
-						: null;
-				IssueFieldMapping mapping = new IssueFieldMapping();
-				mapping.setRedmineIssueField(customField);
-				mapping.setOneDevIssueField(defaultField);
-				importOption.getIssueFieldMappings().add(mapping);
-			}
-		} finally {
-			client.close();
+		List<String> customFieldFieldChoices = IssueFieldMapping.getOneDevIssueFieldChoices();
+		for (String customField: customFields) {
+			String defaultField = customFieldFieldChoices.contains(customField)
+					? customField
+					: null;
+			IssueFieldMapping mapping = new IssueFieldMapping();
+			mapping.setRedmineIssueField(customField);
+			mapping.setOneDevIssueField(defaultField);
+			importOption.getIssueFieldMappings().add(mapping);
 		}
 		return importOption;
 	}
 
 	private Map<String, Optional<User>> users = new HashMap<>();
 
+	private Map<String, User> verifiedEmailOwners;
+
+	private RedmineUserResolver userResolver;
+
+	private RedmineIdentityMap identityMap;
+
+	private Set<Long> createdUserIds = new HashSet<>();
+
 	private ImportServer server;
 	private final IssueImportSource source;
 	private String redmineProjectId;
@@ -172,6 +204,8 @@ public class ImportUtils {
 	private IssueImportOption importOption;
 	private boolean dryRun;
 	private TaskLogger logger;
+	private RedmineSnapshot snapshot;
+	private ResumeMarker resumeMarker;
 
 	public ImportUtils(ImportServer server, IssueImportSource what, Project oneDevProject,
 					   IssueImportOption importOption, boolean dryRun, TaskLogger logger) {
@@ -191,21 +225,83 @@ public class ImportUtils {
 
 	}
 
+	void setSnapshot(@Nullable RedmineSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/*
+	 * Imports committing issues in chunks record what they committed, so that running
+	 * them again resumes them.
+	 */
 	@Nullable
-	User getUser(Client client, String redmineUserId) {
+	private ResumeMarker getResumeMarker() {
+		if (resumeMarker == null && !dryRun && importOption.isImportIssues() && importOption.getIssuesPerTransaction() > 0)
+			resumeMarker = ResumeMarker.of(server, redmineProjectId, oneDevProject.getId());
+		return resumeMarker;
+	}
+
+	private void checkNotInterrupted() {
+		if (!dryRun && getResumeMarker() == null && !ResumeMarker.of(server, redmineProjectId, oneDevProject.getId()).isEmpty()) {
+			throw new ExplicitException("An earlier import of this Redmine project was interrupted after committing "
+					+ "some of its data. Set issues per transaction to resume it");
+		}
+	}
+
+	private RedmineClient newClient() {
+		RedmineClient rc = new RedmineClient(server, logger);
+		rc.setSnapshot(snapshot);
+		return rc;
+	}
+
+	private RedmineUserResolver getUserResolver(RedmineClient rc) {
+		if (userResolver == null) {
+			// responses of users known from earlier imports would be missing in snapshots
+			if (snapshot == null)
+				identityMap = OneDev.getInstance(RedmineConnectionManager.class).getIdentityMap(server);
+			userResolver = new RedmineUserResolver(server, rc, identityMap);
+		}
+		return userResolver;
+	}
+
+	/*
+	 * Owners of all verified email addresses, loaded in one query instead of looking up
+	 * addresses of Redmine users one by one.
+	 */
+	@Nullable
+	private User findByVerifiedEmailAddress(String email) {
+		if (verifiedEmailOwners == null) {
+			verifiedEmailOwners = new HashMap<>();
+			for (EmailAddress emailAddress: OneDev.getInstance(EmailAddressManager.class).query()) {
+				if (emailAddress.isVerified())
+					verifiedEmailOwners.put(emailAddress.getValue().toLowerCase(), emailAddress.getOwner());
+			}
+		}
+		return verifiedEmailOwners.get(email.toLowerCase());
+	}
+
+	@Nullable
+	User getUser(RedmineClient rc, String redmineUserId) {
 		Optional<User> userOpt = users.get(redmineUserId);
 		if (userOpt == null) {
-			String apiEndpoint = server.getApiEndpoint("/users/" + redmineUserId + ".json");
 			try {
-				JsonNode redmineUser = JerseyUtils.get(client, apiEndpoint, logger).get("user");
-				String email = redmineUser.get("mail").asText(null);
-				String login = redmineUser.get("login").asText(null);
-				String lastname = redmineUser.get("lastname").asText(null);
-				String firstname = redmineUser.get("firstname").asText(null);
+				// profile is empty for users Redmine does not know
+				JsonNode redmineUser = getUserResolver(rc).getProfile(redmineUserId).orElse(null);
+				String email = redmineUser != null ? redmineUser.get("mail").asText(null) : null;
+				Long rememberedUserId = identityMap != null ? identityMap.getOneDevUserId(redmineUserId) : null;
+				// the account chosen earlier only counts while it still owns the address in the profile
+				User emailOwner = email != null && rememberedUserId != null ? findByVerifiedEmailAddress(email) : null;
+				User rememberedUser = emailOwner != null && rememberedUserId.equals(emailOwner.getId()) ? emailOwner : null;
+
+				if (rememberedUser != null) {
+					userOpt = Optional.of(rememberedUser);
+					addToDefaultGroup(rememberedUser);
+				} else if (email != null) {
+					String login = redmineUser.get("login").asText(null);
+					String lastname = redmineUser.get("lastname").asText(null);
+					String firstname = redmineUser.get("firstname").asText(null);
 
-				if (email != null) {
 					UserManager um = OneDev.getInstance(UserManager.class);
-					userOpt = Optional.ofNullable(um.findByVerifiedEmailAddress(email));
+					userOpt = Optional.ofNullable(findByVerifiedEmailAddress(email));
 
 					if(!userOpt.isPresent() && this.importOption.isCreateUser()) {
 						EmailAddressManager em = OneDev.getInstance(EmailAddressManager.class);
@@ -232,24 +328,19 @@ public class ImportUtils {
 						if (!dryRun) {
 							um.create(nu);
 							em.create(ae);
+							verifiedEmailOwners.put(email.toLowerCase(), nu);
+							createdUserIds.add(nu.getId());
 						}
 						nu.getEmailAddresses().add(ae);
 						this.usersCreated.add(login);
 						userOpt = Optional.of(nu);
 					}
 
-					if(userOpt.isPresent() && defaultGroup != null) {
-						MembershipManager mm = OneDev.getInstance(MembershipManager.class);
-						User user = userOpt.get();
-						long existingMembership = user.getMemberships().stream().filter(membership -> membership.getGroup().getId().equals(defaultGroup.getId())).count();
-						if (existingMembership == 0) {
-							Membership membership = new Membership();
-							membership.setUser(user);
-							membership.setGroup(defaultGroup);
-							if(!dryRun) {
-								mm.create(membership);
-							}
-						}
+					if(userOpt.isPresent()) {
+						addToDefaultGroup(userOpt.get());
+						// users created by a dry run have no id
+						if (identityMap != null && userOpt.get().getId() != null)
+							rememberUser(redmineUserId, userOpt.get().getId());
 					}
 				} else {
 					userOpt = Optional.empty();
@@ -257,18 +348,47 @@ public class ImportUtils {
 			} catch (ExplicitException|NullPointerException ex) {
 				// Redmine returns status 404 for unknown users
 				userOpt = Optional.empty();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
 			}
 			users.put(redmineUserId, userOpt);
 		}
 		return userOpt.orElse(null);
 	}
 
-	ImportResult importIssues() {
-		Client client = server.newClient();
+	/*
+	 * Accounts created by this import are only remembered once committed, as ids of
+	 * rolled back accounts may be given to other accounts later.
+	 */
+	private void rememberUser(String redmineUserId, Long userId) {
+		if (createdUserIds.contains(userId)) {
+			OneDev.getInstance(TransactionManager.class).runAfterCommit(
+					() -> identityMap.putOneDevUserId(redmineUserId, userId));
+		} else {
+			identityMap.putOneDevUserId(redmineUserId, userId);
+		}
+	}
 
+	private void addToDefaultGroup(User user) {
+		if (defaultGroup != null) {
+			MembershipManager mm = OneDev.getInstance(MembershipManager.class);
+			long existingMembership = user.getMemberships().stream().filter(membership -> membership.getGroup().getId().equals(defaultGroup.getId())).count();
+			if (existingMembership == 0) {
+				Membership membership = new Membership();
+				membership.setUser(user);
+				membership.setGroup(defaultGroup);
+				if(!dryRun) {
+					mm.create(membership);
+				}
+			}
+		}
+	}
+
+	ImportResult importIssues() {
 		try {
+			checkNotInterrupted();
 
-			RedmineClient rc = new RedmineClient(client, this.logger);
+			RedmineClient rc = newClient();
 
 			Set<String> nonExistentMilestones = new HashSet<>();
 			Set<String> nonExistentLogins = new HashSet<>();
@@ -344,8 +464,7 @@ public class ImportUtils {
 			for (Milestone milestone: oneDevProject.getMilestones())
 				milestoneMappings.put(milestone.getName(), milestone);
 
-			String usersApiEndpoint = server.getApiEndpoint("/users.json");
-			for (JsonNode userNode: rc.list(usersApiEndpoint, "users"))
+			for (JsonNode userNode: getUserResolver(rc).listUsers())
 				userId2nameMap.put(userNode.get("id").asText(), userNode.get("firstname").asText() + " " + userNode.get("lastname").asText());
 
 			String versionsApiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/versions.json");
@@ -353,15 +472,15 @@ public class ImportUtils {
 				versionId2nameMap.put(versionNode.get("id").asText(), versionNode.get("name").asText());
 
 			String statusesApiEndpoint = server.getApiEndpoint("/issue_statuses.json");
-			for (JsonNode statusNode: rc.list(statusesApiEndpoint, "issue_statuses"))
+			for (JsonNode statusNode: rc.listReference(statusesApiEndpoint, "issue_statuses"))
 				statusId2nameMap.put(statusNode.get("id").asText(), statusNode.get("name").asText());
 
 			String trackersApiEndpoint = server.getApiEndpoint("/trackers.json");
-			for (JsonNode trackerNode: rc.list(trackersApiEndpoint, "trackers"))
+			for (JsonNode trackerNode: rc.listReference(trackersApiEndpoint, "trackers"))
 				trackerId2nameMap.put(trackerNode.get("id").asText(), trackerNode.get("name").asText());
 
 			String prioritiesApiEndpoint = server.getApiEndpoint("/enumerations/issue_priorities.json");
-			for (JsonNode priorityNode: rc.list(prioritiesApiEndpoint, "issue_priorities"))
+			for (JsonNode priorityNode: rc.listReference(prioritiesApiEndpoint, "issue_priorities"))
 				priorityId2nameMap.put(priorityNode.get("id").asText(), priorityNode.get("name").asText());
 
 			String categoriesEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/issue_categories.json");
@@ -369,91 +488,540 @@ public class ImportUtils {
 				categoryId2nameMap.put(categoryNode.get("id").asText(), categoryNode.get("name").asText());
 
 			String customFieldsApiEndpoint = server.getApiEndpoint("/custom_fields.json");
-			for (JsonNode customFieldNode: rc.list(customFieldsApiEndpoint, "custom_fields"))
+			for (JsonNode customFieldNode: rc.listReference(customFieldsApiEndpoint, "custom_fields"))
 				fieldId2nameMap.put(customFieldNode.get("id").asText(), customFieldNode.get("name").asText());
 
 			importIssueCategories();
 
 			String initialIssueState = issueSetting.getInitialStateSpec().getName();
 
-			List<Issue> issues = new ArrayList<>();
-
 			Map<Long, Long> issueNumberMappings = new HashMap<>();
-			Map<Long, Issue> issuesMap = new HashMap<>();
-			Map<Long, Long> redmineParents = new HashMap<>();
-			Map<String, JsonNode> redmineRelations = new HashMap<>();
+			// mapped issues not persisted yet, in Redmine ID order
+			Map<Long, Issue> issuesMap = new LinkedHashMap<>();
+			// persisted issues are only kept by entity ID
+			Map<Long, Long> persistedIssues = new HashMap<>();
+			// links of mapped issues not persisted yet
+			List<IssueLink> issueLinks = new ArrayList<>();
+			// links waiting for their issue of higher Redmine ID: children by parent, relations by ID
+			Map<Long, List<Long>> pendingChildren = new HashMap<>();
+			Map<String, JsonNode> pendingRelations = new HashMap<>();
+			List<LinkSpec> linkSpecs = new ArrayList<>();
+			Map<String, LinkSpec> relationTypeMapping = new HashMap<>();
+			LinkSpecManager linkSpecManager = OneDev.getInstance(LinkSpecManager.class);
+			// issues committed by an interrupted import, which is resumed now
+			Set<Long> resumedIssues = new HashSet<>();
+
+			long maxUploadFileSize = (long) OneDev.getInstance(SettingManager.class).getPerformanceSetting().getMaxUploadFileSize() * 1024 * 1024;
+			Long oneDevProjectId = oneDevProject.getId();
+
+			/*
+			 * Issues flow through stages joined by bounded queues. A listing thread feeds
+			 * listed issue nodes, detail requests as well as text conversion and translation
+			 * of history run on the shared executor within the thread budget of their stage,
+			 * and attachments are saved in the background. Mapping to entities stays on this
+			 * thread since it needs the Hibernate session; prepared issues are queued in
+			 * listing order, so issues are still mapped and numbered in ID order. Mapped
+			 * issues are persisted after the last one, or committed in chunks right away if
+			 * issues per transaction are specified.
+			 */
+			class IssuePipeline {
+
+				private final PipelineStage listStage = new PipelineStage("List issues", 1);
+
+				private final PipelineStage detailStage = new PipelineStage("Fetch details", server.getDetailConcurrency());
+
+				private final PipelineStage convertStage = new PipelineStage("Convert text",
+						Runtime.getRuntime().availableProcessors());
+
+				private final PipelineStage mapStage = new PipelineStage("Map issues", 1);
+
+				private final PipelineStage attachmentStage = new PipelineStage("Save attachments",
+						server.getAttachmentConcurrency());
+
+				// kilobytes of attachments queued or being downloaded
+				private final Semaphore attachmentBudget = new Semaphore(getAttachmentBudgetKB(), true);
+
+				private final AttachmentDigestIndex digestIndex =
+						OneDev.getInstance(RedmineConnectionManager.class).getAttachmentDigestIndex();
+
+				// attachments of equal content are saved one after another to find the first copy
+				private final Striped<Lock> digestLocks = Striped.lock(64);
+
+				private final LongAdder copiedAttachments = new LongAdder();
+
+				private final LongAdder copiedBytes = new LongAdder();
+
+				private final TextConversionCache conversionCache =
+						new TextConversionCache(RedmineTextileConverter::convertTextileToMarkdown);
+
+				// issues with text kept verbatim as conversion exceeded its budget
+				private final Set<Long> unconvertedIssues = new ConcurrentSkipListSet<>();
+
+				private final List<PendingAttachments> pendingAttachments = new ArrayList<>();
+
+				// chunks committed are recorded, so the import can be resumed
+				private final boolean chunked = getResumeMarker() != null;
+
+				// persisted issues referring to issues mapped later, migrated at the end
+				private final List<Long> unmigratedIssues = chunked ? resumeMarker.getUnmigratedIssueIds() : new ArrayList<>();
+
+				// persisted link changes to issues mapped later, by change ID
+				private final Map<Long, TempIssueLinkChangeData> unresolvedLinkChanges = new HashMap<>();
 
-			AtomicInteger numOfImportedIssues = new AtomicInteger(0);
-			MyPageDataConsumer pageDataConsumer = new MyPageDataConsumer() {
+				private volatile int total;
 
-				private int total = 0;
-				@Override
-				public void setTotal(int total) {
-					this.total = total;
+				private int numOfImportedIssues;
+
+				private int numOfPersistedIssues;
+
+				// highest Redmine ID mapped so far
+				private long lastOldNumber;
+
+				void run(String apiEndpoint) throws InterruptedException {
+					if (chunked) {
+						for (Map.Entry<Long, String[]> entry: resumeMarker.getUnresolvedLinkChanges().entrySet()) {
+							unresolvedLinkChanges.put(entry.getKey(), new TempIssueLinkChangeData(null,
+									entry.getValue()[0], entry.getValue()[1]));
+						}
+					}
+
+					ExecutorService executor = OneDev.getInstance(ExecutorService.class);
+					BlockingQueue<JsonNode> listed = new ArrayBlockingQueue<>(LIST_QUEUE_CAPACITY);
+					int preparedCapacity = Math.max(PER_PAGE, 2 * server.getDetailConcurrency());
+
+					Future<?> listing = executor.submit(() -> listStage.run(() -> {
+						rc.list(apiEndpoint, "issues", new MyPageDataConsumer() {
+
+							@Override
+							public void setTotal(int total) {
+								IssuePipeline.this.total = total;
+							}
+
+							@Override
+							public int getTotal() {
+								return total;
+							}
+
+							@Override
+							public void consumeElement(JsonNode issueNode) throws InterruptedException {
+								listStage.recordQueueDepth(listed.size());
+								long startTime = System.nanoTime();
+								listed.put(issueNode);
+								listStage.recordWait(System.nanoTime() - startTime);
+							}
+
+							@Override
+							public void consume(List<JsonNode> pageData) throws InterruptedException {
+								for (JsonNode issueNode: pageData)
+									consumeElement(issueNode);
+							}
+
+						});
+						return null;
+					}));
+
+					Deque<Future<PreparedIssue>> prepared = new ArrayDeque<>();
+					try {
+						boolean listingDone = false;
+						while (true) {
+							while (!listingDone && prepared.size() < preparedCapacity) {
+								JsonNode issueNode = prepared.isEmpty()
+										? listed.poll(100, TimeUnit.MILLISECONDS)
+										: listed.poll();
+								if (issueNode != null) {
+									prepared.add(executor.submit(() -> prepare(issueNode)));
+								} else if (listing.isDone() && listed.isEmpty()) {
+									listingDone = true;
+									getResult(listing);
+								} else if (!prepared.isEmpty()) {
+									break;
+								}
+							}
+
+							Future<PreparedIssue> future = prepared.poll();
+							if (future == null)
+								break;
+							mapStage.recordQueueDepth(prepared.size());
+							long startTime = System.nanoTime();
+							PreparedIssue preparedIssue = getResult(future);
+							mapStage.recordWait(System.nanoTime() - startTime);
+							mapStage.run(() -> {
+								importIssue(preparedIssue);
+								return null;
+							});
+							linkPendingAttachments(false);
+
+							numOfImportedIssues++;
+							if (numOfImportedIssues % PER_PAGE == 0 || numOfImportedIssues == total)
+								logger.log("Imported " + numOfImportedIssues + "/" + total + " issues");
+
+							if (chunked && issuesMap.size() >= importOption.getIssuesPerTransaction()) {
+								// descriptions of the chunk need links of all its attachments
+								linkPendingAttachments(true);
+								persistIssues(false);
+							}
+						}
+
+						linkPendingAttachments(true);
+					} finally {
+						listing.cancel(true);
+						for (Future<PreparedIssue> future: prepared)
+							future.cancel(true);
+						for (PendingAttachments each: pendingAttachments) {
+							for (Future<String> savedName: each.savedNames)
+								savedName.cancel(true);
+						}
+						digestIndex.save();
+					}
+
+					if (copiedAttachments.sum() != 0) {
+						logger.log(String.format("Copied %d attachments already imported instead of downloading them (%d KB)",
+								copiedAttachments.sum(), copiedBytes.sum() / 1024));
+					}
+
+					for (PipelineStage stage: new PipelineStage[] {listStage, detailStage, convertStage, mapStage, attachmentStage})
+						logger.log(stage.toString());
+					if (importOption.isConvertTextileToMarkdown()) {
+						logger.log(conversionCache.toString());
+						resultNotes.add(conversionCache.toString());
+					}
+
+					if (!unconvertedIssues.isEmpty()) {
+						List<String> links = new ArrayList<>();
+						for (Long oldNumber: unconvertedIssues)
+							links.add(String.format("<a href=\"%s\">#%d</a>", server.getApiEndpoint("/issues/" + oldNumber), oldNumber));
+						resultNotes.add("Text too complex to convert from Textile, kept verbatim in Redmine issues "
+								+ StringUtils.join(links, ", "));
+					}
 				}
-				@Override
-				public int getTotal() {
-					return total;
+
+				private PreparedIssue prepare(JsonNode issueNode) throws InterruptedException {
+					PreparedIssue preparedIssue = new PreparedIssue(issueNode);
+					preparedIssue.detailNode = detailStage.run(() -> fetchIssueDetails(issueNode));
+					prefetchUsers(issueNode, preparedIssue.detailNode);
+					return convertStage.run(() -> {
+						Long oldNumber = issueNode.get("id").asLong();
+						preparedIssue.description = convertText(oldNumber, issueNode.get("description").asText(null));
+						for (JsonNode journalNode: preparedIssue.detailNode.path("journals"))
+							preparedIssue.journals.add(prepareJournal(oldNumber, journalNode));
+						return preparedIssue;
+					});
 				}
 
-				@Nullable
-				private String processAttachments(String issueUUID, String readableIssueId, @Nullable String markdown,
-						List<JsonNode> attachmentNodes, Set<String> tooLargeAttachments) {
-					if (markdown == null)
-						markdown = "";
+				/*
+				 * Converts notes and translates history details on the convert stage, as it
+				 * needs no Hibernate session. Assignees of changes are resolved to users when
+				 * the issue is mapped, which replays the details in their original order.
+				 */
+				private PreparedJournal prepareJournal(Long oldNumber, JsonNode journalNode) {
+					PreparedJournal journal = new PreparedJournal(journalNode);
+					journal.createdOn = ISODateTimeFormat.dateTimeNoMillis()
+							.parseDateTime(journalNode.get("created_on").asText())
+							.toDate();
+					JsonNode notesNode = journalNode.get("notes");
+					journal.notes = convertText(oldNumber, (notesNode != null) ? notesNode.asText() : "");
+
+					JsonNode detailsNode = journalNode.get("details");
+					if (detailsNode == null)
+						return journal;
+
+					// linked from result notes as JSON source
+					String apiEndpoint = server.getApiEndpoint("/issues/" + oldNumber + ".json?include=relations,watchers,attachments,journals");
+
+					journal.details = new ArrayList<>();
+					for (JsonNode detailNode : detailsNode) {
+						String property = detailNode.get("property").asText();
+						String name = detailNode.get("name").asText();
+						JsonNode oldValueNode = detailNode.get("old_value");
+						JsonNode newValueNode = detailNode.get("new_value");
+						String oldValue = (oldValueNode != null) ? oldValueNode.asText(null) : null;
+						String newValue = (newValueNode != null) ? newValueNode.asText(null) : null;
+						PreparedDetail detail = null;
+
+						if ("attr".equals(property)) {
+							if ("subject".equals(name)) {
+								detail = PreparedDetail.change(new IssueTitleChangeData(oldValue, newValue));
+							} else if ("description".equals(name)) {
+								// not migrated because OneDev does not support description history
+							} else if ("status_id".equals(name)) {
+								// do not convert Redmine status to OneDev state for change history
+								String oldStatus = statusId2nameMap.get(oldValue);
+								String newStatus = statusId2nameMap.get(newValue);
+								detail = PreparedDetail.change(new IssueStateChangeData(oldStatus, newStatus, Collections.emptyMap(), Collections.emptyMap()));
+							} else if ("author_id".equals(name)) {
+								detail = PreparedDetail.fields("Author ID", oldValue, newValue);
+							} else if ("parent_id".equals(name)) {
+								detail = PreparedDetail.fields("Parent ID", oldValue, newValue);
+							} else if ("tracker_id".equals(name)) {
+								// do not convert Redmine tracker to OneDev type for change history
+								detail = PreparedDetail.fields("Type", trackerId2nameMap.get(oldValue), trackerId2nameMap.get(newValue));
+							} else if ("priority_id".equals(name)) {
+								// do not convert Redmine priority to OneDev priority for change history
+								detail = PreparedDetail.fields("Priority", priorityId2nameMap.get(oldValue), priorityId2nameMap.get(newValue));
+							} else if ("assigned_to_id".equals(name)) {
+								detail = PreparedDetail.assignee(oldValue, newValue);
+							} else if ("category_id".equals(name)) {
+								detail = PreparedDetail.fields(importOption.getCategoryIssueField(),
+										categoryId2nameMap.get(oldValue), categoryId2nameMap.get(newValue));
+							} else if ("fixed_version_id".equals(name)) {
+								String oldVersion = versionId2nameMap.get(oldValue);
+								String newVersion = versionId2nameMap.get(newValue);
+								if (oldVersion != null && newVersion != null) {
+									Milestone oldMilestone = new Milestone();
+									Milestone newMilestone = new Milestone();
+									oldMilestone.setName(oldVersion);
+									newMilestone.setName(newVersion);
+									detail = PreparedDetail.change(new IssueMilestoneChangeData(Collections.singletonList(oldMilestone), Collections.singletonList(newMilestone)));
+								} else if (newVersion != null) {
+									detail = PreparedDetail.change(new IssueMilestoneAddData(newVersion));
+								} else if (oldVersion != null) {
+									detail = PreparedDetail.change(new IssueMilestoneRemoveData(oldVersion));
+								}
+							} else if ("start_date".equals(name)) {
+								String fieldName = importOption.getStartDateField();
+								detail = PreparedDetail.fields(fieldName != null ? fieldName : "Start date", oldValue, newValue);
+							} else if ("due_date".equals(name)) {
+								String fieldName = importOption.getDueDateField();
+								detail = PreparedDetail.fields(fieldName != null ? fieldName : "Due date", oldValue, newValue);
+							} else if ("done_ratio".equals(name)) {
+								String fieldName = importOption.getDoneRatioField();
+								detail = PreparedDetail.fields(fieldName != null ? fieldName : "Done Ratio", oldValue, newValue);
+							} else if ("estimated_hours".equals(name)) {
+								String fieldName = importOption.getEstimatedHoursField();
+								detail = PreparedDetail.fields(fieldName != null ? fieldName : "Estimated Hours", oldValue, newValue);
+							} else {
+								detail = PreparedDetail.note(String.format(
+									"Unknown history property name '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
+									HtmlEscape.escapeHtml5(name), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
+							}
+						} else if ("relation".equals(property)) {
+							String linkName;
+							switch (detailNode.get("name").asText()) {
+								case "relates":     linkName = "Related To"; break;
+								case "duplicates":  linkName = "Duplicating"; break;
+								case "duplicated":  linkName = "Duplicated By"; break;
+								case "blocks":      linkName = "Blocking"; break;
+								case "blocked":     linkName = "Blocked By"; break;
+								case "precedes":    linkName = "Precedes"; break;
+								case "follows":     linkName = "Follows"; break;
+								case "copied_to":   linkName = "Copied To"; break;
+								case "copied_from": linkName = "Copied From"; break;
+								default:            linkName = "Unknown"; break;
+							}
+							detail = PreparedDetail.change(new TempIssueLinkChangeData(linkName, oldValue, newValue));
+						} else if ("cf".equals(property)) {
+							// custom fields
+							String fieldName = fieldId2nameMap.get(name);
+							if (fieldName != null) {
+								detail = PreparedDetail.fields(fieldName, oldValue, newValue);
+							} else {
+								detail = PreparedDetail.note(String.format(
+									"Unknown history custom field '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
+									HtmlEscape.escapeHtml5(name), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
+							}
+						} else if ("attachment".equals(property) || "attachment_version".equals(property)) {
+							// not migrated because OneDev does not support attachment history
+						} else {
+							detail = PreparedDetail.note(String.format(
+								"Unknown history property '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
+								HtmlEscape.escapeHtml5(property), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
+						}
 
-					String attachmentsLinks = "";
+						if (detail != null)
+							journal.details.add(detail);
+					}
+					return journal;
+				}
 
-					long maxUploadFileSize = (long) OneDev.getInstance(SettingManager.class).getPerformanceSetting().getMaxUploadFileSize() * 1024 * 1024;
-					AttachmentManager am = OneDev.getInstance(AttachmentManager.class);
+				/*
+				 * Users not in the bulk listing are fetched while the issue waits to be mapped.
+				 */
+				private void prefetchUsers(JsonNode issueNode, JsonNode detailNode) {
+					for (String fieldName: new String[] {"author", "assigned_to"}) {
+						if (issueNode.hasNonNull(fieldName))
+							userResolver.prefetch(issueNode.get(fieldName).get("id").asText());
+					}
+					for (JsonNode watcherNode: detailNode.path("watchers"))
+						userResolver.prefetch(watcherNode.get("id").asText());
+					for (JsonNode journalNode: detailNode.path("journals")) {
+						userResolver.prefetch(journalNode.get("user").get("id").asText());
+						for (JsonNode detail: journalNode.path("details")) {
+							if ("assigned_to_id".equals(detail.path("name").asText())) {
+								for (String valueName: new String[] {"old_value", "new_value"}) {
+									if (detail.hasNonNull(valueName))
+										userResolver.prefetch(detail.get(valueName).asText());
+								}
+							}
+						}
+					}
+				}
+
+				private <T> T getResult(Future<T> future) throws InterruptedException {
+					try {
+						return future.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof RuntimeException)
+							throw (RuntimeException) e.getCause();
+						throw new RuntimeException(e.getCause());
+					}
+				}
 
+				private int getAttachmentBudgetKB() {
+					return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_ATTACHMENT_CHARGE_KB,
+							server.getAttachmentBudget() * 1024L));
+				}
+
+				/*
+				 * Each attachment is downloaded as a task of its own. Submitting waits while
+				 * the byte budget is used up by earlier downloads, which holds back mapping
+				 * of further issues only when downloads fall behind.
+				 */
+				private List<Future<String>> submitAttachments(String issueUUID, List<JsonNode> attachmentNodes)
+						throws InterruptedException {
+					ExecutorService executor = OneDev.getInstance(ExecutorService.class);
+					List<Future<String>> savedNames = new ArrayList<>();
 					for (JsonNode attachmentNode: attachmentNodes) {
-						String attachmentName = attachmentNode.get("filename").asText(null);
-						String attachmentUrl = attachmentNode.get("content_url").asText(null);
-						long attachmentSize = attachmentNode.get("filesize").asLong(0);
-						if (attachmentSize != 0 && attachmentName != null && attachmentUrl != null) {
-							if (attachmentSize >  maxUploadFileSize) {
-								tooLargeAttachments.add(readableIssueId + ":" + attachmentName);
-							} else {
-								String endpoint = attachmentUrl;
-								WebTarget target = client.target(endpoint);
-								Invocation.Builder builder =  target.request();
-								try (Response response = builder.get()) {
-									String errorMessage = JerseyUtils.checkStatus(endpoint, response);
-									if (errorMessage != null) {
-										throw new ExplicitException(String.format(
-												"Error downloading attachment (url: %s, error message: %s)",
-												endpoint, errorMessage));
-									}
-									try (InputStream is = response.readEntity(InputStream.class)) {
-										String oneDevAttachmentName = am.saveAttachment(oneDevProject.getId(), issueUUID, attachmentName, is);
-										String oneDevAttachmentUrl = oneDevProject.getAttachmentUrlPath(issueUUID, oneDevAttachmentName);
-										if (markdown.contains("(" + attachmentName + ")")) {
-											markdown = markdown.replace("(" + attachmentName + ")", "(" + oneDevAttachmentUrl + ")");
-										}
-
-										String description = attachmentNode.get("description") != null ? attachmentNode.get("description").asText() : "";
-										attachmentsLinks += "[" + attachmentName + "](" + oneDevAttachmentUrl + ")"
-												+ (!description.isEmpty() ? " - " + description : "")
-												+ " (" + attachmentNode.get("author").get("name").asText()
-												+ ", " + attachmentNode.get("created_on").asText() + ")\n";
-									} catch (IOException e) {
-										logger.error(attachmentNode.toPrettyString() , e);
-										throw new RuntimeException(e);
-									}
+						long sizeKB = (attachmentNode.get("filesize").asLong() + 1023) / 1024;
+						int charge = (int) Math.min(getAttachmentBudgetKB(), Math.max(MIN_ATTACHMENT_CHARGE_KB, sizeKB));
+						long startTime = System.nanoTime();
+						attachmentBudget.acquire(charge);
+						mapStage.recordWait(System.nanoTime() - startTime);
+						try {
+							savedNames.add(executor.submit(() -> {
+								try {
+									return attachmentStage.run(() -> saveAttachment(issueUUID, attachmentNode));
+								} finally {
+									attachmentBudget.release(charge);
 								}
+							}));
+						} catch (RuntimeException e) {
+							attachmentBudget.release(charge);
+							throw e;
+						}
+					}
+					return savedNames;
+				}
 
+				/*
+				 * Runs on the attachments stage, so it must not touch the Hibernate session.
+				 * Content imported before is copied from the stored file if it is still there.
+				 */
+				private String saveAttachment(String issueUUID, JsonNode attachmentNode) throws InterruptedException {
+					String key = AttachmentDigestIndex.getKey(attachmentNode);
+					if (key == null)
+						return downloadAttachment(issueUUID, attachmentNode);
+
+					Lock lock = digestLocks.get(key);
+					lock.lockInterruptibly();
+					try {
+						AttachmentManager am = OneDev.getInstance(AttachmentManager.class);
+						AttachmentDigestIndex.Location location = digestIndex.get(key);
+						if (location != null) {
+							long size = attachmentNode.get("filesize").asLong();
+							File storedFile = new File(am.getAttachmentGroupDir(location.projectId, location.group), location.name);
+							if (storedFile.length() == size) {
+								try (InputStream is = new FileInputStream(storedFile)) {
+									String savedName = am.saveAttachment(oneDevProjectId, issueUUID,
+											attachmentNode.get("filename").asText(null), is);
+									copiedAttachments.increment();
+									copiedBytes.add(size);
+									return savedName;
+								} catch (IOException e) {
+									throw new RuntimeException(e);
+								}
 							}
+							digestIndex.remove(key);
 						}
+						String savedName = downloadAttachment(issueUUID, attachmentNode);
+						digestIndex.put(key, new AttachmentDigestIndex.Location(oneDevProjectId, issueUUID, savedName));
+						return savedName;
+					} finally {
+						lock.unlock();
 					}
+				}
 
-					if (!attachmentsLinks.isEmpty())
-						markdown += "\n\n**Attachments:**\n" + attachmentsLinks;
+				private String downloadAttachment(String issueUUID, JsonNode attachmentNode) {
+					AttachmentManager am = OneDev.getInstance(AttachmentManager.class);
+					String attachmentName = attachmentNode.get("filename").asText(null);
+					String endpoint = attachmentNode.get("content_url").asText(null);
+					try {
+						return rc.download(endpoint,
+								is -> am.saveAttachment(oneDevProjectId, issueUUID, attachmentName, is));
+					} catch (ExplicitException e) {
+						throw new ExplicitException(String.format(
+								"Error downloading attachment (url: %s, error message: %s)",
+								endpoint, e.getMessage()));
+					} catch (RuntimeException e) {
+						logger.error(attachmentNode.toPrettyString() , e);
+						throw e;
+					}
+				}
 
-					if (markdown.length() == 0)
-						markdown = null;
+				/*
+				 * Rewrite attachment references of the description and list all attachments
+				 * below it.
+				 */
+				@Nullable
+				private String linkAttachments(@Nullable String markdown, AttachmentLinkRewriter rewriter,
+						List<JsonNode> attachmentNodes, List<String> urls) {
+					StringBuilder builder = new StringBuilder();
+					if (markdown != null)
+						builder.append(rewriter.rewrite(markdown));
+
+					if (!attachmentNodes.isEmpty())
+						builder.append("\n\n**Attachments:**\n");
+					for (int i = 0; i < attachmentNodes.size(); i++) {
+						JsonNode attachmentNode = attachmentNodes.get(i);
+						String description = attachmentNode.get("description") != null ? attachmentNode.get("description").asText() : "";
+						builder.append("[").append(attachmentNode.get("filename").asText(null)).append("](")
+								.append(urls.get(i)).append(")");
+						if (!description.isEmpty())
+							builder.append(" - ").append(description);
+						builder.append(" (").append(attachmentNode.get("author").get("name").asText())
+								.append(", ").append(attachmentNode.get("created_on").asText()).append(")\n");
+					}
+
+					return builder.length() != 0 ? builder.toString() : null;
+				}
+
+				/*
+				 * Fill in links of issues whose attachments are saved, waiting for outstanding
+				 * downloads if specified.
+				 */
+				private void linkPendingAttachments(boolean wait) throws InterruptedException {
+					for (Iterator<PendingAttachments> it = pendingAttachments.iterator(); it.hasNext();) {
+						PendingAttachments each = it.next();
+						if (!wait && !each.savedNames.stream().allMatch(Future::isDone))
+							continue;
+						long startTime = System.nanoTime();
+						List<String> savedNames = new ArrayList<>();
+						for (Future<String> savedName: each.savedNames)
+							savedNames.add(getResult(savedName));
+						mapStage.recordWait(System.nanoTime() - startTime);
+						Issue issue = each.issue;
+						AttachmentLinkRewriter rewriter = new AttachmentLinkRewriter();
+						List<String> urls = new ArrayList<>();
+						for (int i = 0; i < each.attachmentNodes.size(); i++) {
+							String url = oneDevProject.getAttachmentUrlPath(issue.getUUID(), savedNames.get(i));
+							rewriter.add(each.attachmentNodes.get(i).get("filename").asText(), url);
+							urls.add(url);
+						}
+						String description = linkAttachments(issue.getDescription(), rewriter, each.attachmentNodes, urls);
+						issue.setDescription(withExtraIssueInfo(each.extraIssueInfo, description));
+						for (IssueComment comment: issue.getComments())
+							comment.setContent(rewriter.rewrite(comment.getContent()));
+						it.remove();
+					}
+				}
 
-					return markdown;
+				@Nullable
+				private String withExtraIssueInfo(@Nullable String extraIssueInfo, @Nullable String description) {
+					if (extraIssueInfo == null)
+						return description;
+					else if (description != null)
+						return extraIssueInfo + "\n\n" + description;
+					else
+						return extraIssueInfo;
 				}
 
 				private String joinAsMultilineHtml(List<String> values) {
@@ -463,7 +1031,7 @@ public class ImportUtils {
 					return StringUtils.join(escapedValues, "<br>");
 				}
 
-				private String convertText(String str) {
+				private String convertText(Long oldNumber, String str) {
 					if (str == null || str.isEmpty())
 						return str;
 
@@ -471,8 +1039,16 @@ public class ImportUtils {
 					str = str.replace("\r\n", "\n").replace("\r", "\n");
 
 					// convert textile to markdown
-					if (importOption.isConvertTextileToMarkdown())
-						str = RedmineTextileConverter.convertTextileToMarkdown(str);
+					if (importOption.isConvertTextileToMarkdown()) {
+						try {
+							str = conversionCache.convert(str);
+						} catch (RedmineTextileConverter.BudgetExceededException e) {
+							logger.log(String.format("Redmine issue #%d: %s, keeping text verbatim (%d chars)",
+									oldNumber, e.getMessage(), str.length()));
+							unconvertedIssues.add(oldNumber);
+							str = RedmineTextileConverter.toVerbatimBlock(str);
+						}
+					}
 
 					if(str.contains("Changeset scm|")) {
 
@@ -504,451 +1080,637 @@ public class ImportUtils {
 					return milestone;
 				}
 
-				@Override
-				public void consume(List<JsonNode> pageData) throws InterruptedException {
-					for (JsonNode issueNode: pageData) {
-						if (Thread.interrupted())
-							throw new InterruptedException();
-
-						Map<String, String> extraIssueInfo = new LinkedHashMap<>();
-
-						Issue issue = new Issue();
-						issue.setProject(oneDevProject);
-						issue.setNumberScope(oneDevProject.getForkRoot());
-
-						// initialize all custom fields
-						for (FieldSpec fieldSpec : issueSetting.getFieldSpecs())
-							issue.setFieldValue(fieldSpec.getName(), null);
-
-						// subject --> title
-						issue.setTitle(issueNode.get("subject").asText());
-
-						// description --> description
-						issue.setDescription(convertText(issueNode.get("description").asText(null)));
+				private JsonNode fetchIssueDetails(JsonNode issueNode) {
+					String apiEndpoint = server.getApiEndpoint("/issues/" + issueNode.get("id").asLong()
+							+ ".json?include=relations,watchers,attachments,journals");
+					return rc.get(apiEndpoint, issueNode.path("updated_on").asText(null)).get("issue");
+				}
 
-						// issue id --> number
-						Long oldNumber = issueNode.get("id").asLong();
-						Long newNumber;
-						if (importOption.isUseExistingIssueIDs() && OneDev.getInstance(IssueManager.class).find(oneDevProject, oldNumber) != null)
-							throw new ExplicitException("An issue with ID " + oldNumber + " already exists.");
-						if (dryRun || importOption.isUseExistingIssueIDs())
-							newNumber = oldNumber;
+				/*
+				 * Links are created once both of their issues are mapped. As issues are mapped in
+				 * Redmine ID order, a link to an unmapped issue of lower ID is never resolved,
+				 * while a link to an issue of higher ID waits for that issue.
+				 */
+				private void linkIssue(Long oldNumber, JsonNode issueNode, JsonNode issueNode2) {
+					JsonNode parentNode = issueNode.get("parent");
+					if (parentNode != null) {
+						Long parentNumber = parentNode.get("id").asLong();
+						if (issueNumberMappings.containsKey(parentNumber))
+							linkChild(parentNumber, oldNumber);
+						else if (parentNumber > oldNumber)
+							pendingChildren.computeIfAbsent(parentNumber, k -> new ArrayList<>()).add(oldNumber);
 						else
-							newNumber = OneDev.getInstance(IssueManager.class).getNextNumber(oneDevProject);
-						issue.setNumber(newNumber);
-						issueNumberMappings.put(oldNumber, newNumber);
-
-						// parent
-						JsonNode parentNode = issueNode.get("parent");
-						if (parentNode != null)
-							redmineParents.put(oldNumber, parentNode.get("id").asLong());
-
-						// status --> state
-						String status = issueNode.get("status").get("name").asText();
-						String state = statusMappings.getOrDefault(status, initialIssueState);
-						issue.setState(state);
-
-						// fixed_version ("Target version") --> milestone
-						if (issueNode.hasNonNull("fixed_version")) {
-							String milestoneName = issueNode.get("fixed_version").get("name").asText();
-							Milestone milestone = milestoneMappings.get(milestoneName);
-							if (milestone != null) {
-								IssueSchedule schedule = new IssueSchedule();
-								schedule.setIssue(issue);
-								schedule.setMilestone(milestone);
-								issue.getSchedules().add(schedule);
+							noteUnknownParent(parentNumber, oldNumber);
+					}
+					List<Long> children = pendingChildren.remove(oldNumber);
+					if (children != null) {
+						for (Long childNumber: children)
+							linkChild(oldNumber, childNumber);
+					}
+
+					// Redmine returns relations with both of their issues
+					JsonNode relationsNode = issueNode2.get("relations");
+					if (relationsNode != null) {
+						for (JsonNode relationNode: relationsNode) {
+							long issueId = relationNode.get("issue_id").asLong();
+							long otherNumber = issueId == oldNumber ? relationNode.get("issue_to_id").asLong() : issueId;
+							if (otherNumber == oldNumber)
+								continue;
+							if (issueNumberMappings.containsKey(otherNumber)) {
+								pendingRelations.remove(relationNode.get("id").asText());
+								linkRelated(relationNode);
+							} else if (otherNumber > oldNumber) {
+								pendingRelations.put(relationNode.get("id").asText(), relationNode);
 							} else {
-								extraIssueInfo.put("Milestone", milestoneName);
-								nonExistentMilestones.add(milestoneName);
+								noteUnknownRelation(relationNode);
 							}
 						}
+					}
+				}
 
-						// author --> submitter
-						String redmineUserId = issueNode.get("author").get("id").asText(null);
-						User user = getUser(client, redmineUserId);
-						if (user != null) {
-							issue.setSubmitter(user);
-						} else {
-							issue.setSubmitter(OneDev.getInstance(UserManager.class).getUnknown());
-							nonExistentLogins.add(issueNode.get("author").get("name").asText() + ":" + redmineUserId);
+				private void linkChild(Long parentNumber, Long childNumber) {
+					if (resumedIssues.contains(parentNumber) && resumedIssues.contains(childNumber))
+						return;
+					LinkSpec linkSpec = relationTypeMapping.computeIfAbsent("parent", k -> getOrCreateLinkSpec(
+							linkSpecManager, "Child Issue", true, "Parent Issue", false, 15, linkSpecs));
+					addLink(linkSpec, getIssue(parentNumber), getIssue(childNumber));
+				}
+
+				private void linkRelated(JsonNode relationNode) {
+					long issue_id = relationNode.get("issue_id").asLong();
+					long issue_to_id = relationNode.get("issue_to_id").asLong();
+					String relation_type = relationNode.get("relation_type").asText();
+					if (resumedIssues.contains(issue_id) && resumedIssues.contains(issue_to_id))
+						return;
+
+					// create OneDev link specs (if necessary)
+					LinkSpec linkSpec = relationTypeMapping.computeIfAbsent(relation_type, k -> {
+						LinkSpec spec;
+						switch (relation_type) {
+							default:
+							case "relates":    spec = getOrCreateLinkSpec(linkSpecManager, "Related To", true, null, false, 10, linkSpecs); break;
+							case "duplicates": spec = getOrCreateLinkSpec(linkSpecManager, "Duplicated By", true, "Duplicating", true, 11, linkSpecs); break;
+							case "blocks":     spec = getOrCreateLinkSpec(linkSpecManager, "Blocked By", true, "Blocking", true, 12, linkSpecs); break;
+							case "precedes":   spec = getOrCreateLinkSpec(linkSpecManager, "Follows", true, "Precedes", true, 13, linkSpecs); break;
+							case "copied_to":  spec = getOrCreateLinkSpec(linkSpecManager, "Copied From", true, "Copied To", true, 14, linkSpecs); break;
 						}
+						return spec;
+					});
+					addLink(linkSpec, getIssue(issue_to_id), getIssue(issue_id));
+				}
 
-						// created_on --> submit date
-						issue.setSubmitDate(ISODateTimeFormat.dateTimeNoMillis()
-								.parseDateTime(issueNode.get("created_on").asText())
-								.toDate());
-
-						LastActivity lastUpdate = new LastActivity();
-						lastUpdate.setDescription("opened");
-						lastUpdate.setDate(issue.getSubmitDate());
-						lastUpdate.setUser(issue.getSubmitter());
-
-						// tracker --> custom field "Type"
-						JsonNode trackerNode = issueNode.get("tracker");
-						if (trackerNode != null) {
-							String trackerName = trackerNode.get("name").asText();
-							Pair<FieldSpec, String> mapped = trackerMappings.get(trackerName);
-							if (mapped != null) {
-								issue.setFieldValue(mapped.getLeft().getName(), mapped.getRight());
-							} else {
-								extraIssueInfo.put("Type", HtmlEscape.escapeHtml5(trackerName));
-								unmappedIssueTypes.add(HtmlEscape.escapeHtml5(trackerName));
+				private void addLink(LinkSpec linkSpec, Issue source, Issue target) {
+					IssueLink link = new IssueLink();
+					link.setSource(source);
+					link.setTarget(target);
+					link.setSpec(linkSpec);
+					issueLinks.add(link);
+				}
+
+				private void noteUnknownParent(Long parentNumber, Long childNumber) {
+					resultNotes.add(String.format(
+							"Unknown parent issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
+							parentNumber, server.getApiEndpoint("/issues/" + childNumber), childNumber));
+				}
+
+				private void noteUnknownRelation(JsonNode relationNode) {
+					long issue_id = relationNode.get("issue_id").asLong();
+					long issue_to_id = relationNode.get("issue_to_id").asLong();
+					boolean sourceUnknown = !issueNumberMappings.containsKey(issue_to_id);
+					resultNotes.add(String.format(
+							"Relation to unknown issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
+							sourceUnknown ? issue_to_id : issue_id,
+							server.getApiEndpoint("/issues/" + (sourceUnknown ? issue_id : issue_to_id)),
+							sourceUnknown ? issue_id : issue_to_id));
+				}
+
+				/*
+				 * Links still waiting at the end refer to issues not imported.
+				 */
+				void noteUnlinkedIssues() {
+					for (Map.Entry<Long, List<Long>> entry: pendingChildren.entrySet()) {
+						for (Long childNumber: entry.getValue())
+							noteUnknownParent(entry.getKey(), childNumber);
+					}
+					for (JsonNode relationNode: pendingRelations.values())
+						noteUnknownRelation(relationNode);
+				}
+
+				@Nullable
+				private Issue getIssue(Long oldNumber) {
+					Issue issue = issuesMap.get(oldNumber);
+					if (issue == null) {
+						Long issueId = persistedIssues.get(oldNumber);
+						if (issueId != null)
+							issue = OneDev.getInstance(Dao.class).load(Issue.class, issueId);
+					}
+					return issue;
+				}
+
+				// not mapped yet, but may still be as issues are mapped in Redmine ID order
+				private boolean isMappedLater(@Nullable String oldNumber) {
+					if (oldNumber == null || oldNumber.length() > 18)
+						return false;
+					Long number = Long.valueOf(oldNumber);
+					return number > lastOldNumber && !issueNumberMappings.containsKey(number);
+				}
+
+				private boolean refersToIssueMappedLater(Issue issue) {
+					List<String> texts = new ArrayList<>();
+					texts.add(issue.getDescription());
+					for (IssueComment comment: issue.getComments())
+						texts.add(comment.getContent());
+					for (String text: texts) {
+						if (text != null) {
+							Matcher matcher = ISSUE_REFERENCE.matcher(text);
+							while (matcher.find()) {
+								if (isMappedLater(matcher.group(1)))
+									return true;
 							}
 						}
+					}
+					return false;
+				}
 
-						// priority --> custom field "Priority"
-						JsonNode priorityNode = issueNode.get("priority");
-						if (priorityNode != null) {
-							String priorityName = priorityNode.get("name").asText();
-							Pair<FieldSpec, String> mapped = priorityMappings.get(priorityName);
-							if (mapped != null) {
-								issue.setFieldValue(mapped.getLeft().getName(), mapped.getRight());
-							} else {
-								extraIssueInfo.put("Priority", HtmlEscape.escapeHtml5(priorityName));
-								unmappedIssuePriorities.add(priorityName);
+				@Nullable
+				private String summarizeLinkedIssue(@Nullable String value) {
+					if (value == null)
+						return null;
+					Long oldNumber = Long.valueOf(value);
+					Issue issue = getIssue(oldNumber);
+					return "#" + issueNumberMappings.getOrDefault(oldNumber, oldNumber)
+							+ (issue != null ? " - " + issue.getTitle() : "");
+				}
+
+				/*
+				 * Persist mapped issues with their links. References to other issues are migrated
+				 * to their new numbers; when committing a chunk, issues referring to issues not
+				 * mapped yet are migrated once all issues are persisted. Committed entities are
+				 * evicted from the session, so neither it nor the heap grow with the number of
+				 * issues.
+				 */
+				void persistIssues(boolean lastChunk) {
+					if (issuesMap.isEmpty() && issueLinks.isEmpty() && linkSpecs.isEmpty())
+						return;
+
+					ReferenceMigrator migrator = new ReferenceMigrator(Issue.class, issueNumberMappings);
+					Dao dao = OneDev.getInstance(Dao.class);
+					// new numbers equal Redmine IDs when using existing IDs, so nothing changes later
+					boolean deferrable = !lastChunk && !importOption.isUseExistingIssueIDs();
+					List<Issue> unmigrated = new ArrayList<>();
+					Map<IssueChange, TempIssueLinkChangeData> unresolved = new IdentityHashMap<>();
+
+					OneDev.getInstance(TransactionManager.class).run(() -> {
+						for (LinkSpec linkSpec: linkSpecs)
+							linkSpecManager.create(linkSpec);
+
+						for (Issue issue: issuesMap.values()) {
+							// replace temporary link change data
+							for (IssueChange change: issue.getChanges()) {
+								if (change.getData() instanceof TempIssueLinkChangeData) {
+									TempIssueLinkChangeData data = (TempIssueLinkChangeData) change.getData();
+									if (deferrable && (isMappedLater(data.oldValue) || isMappedLater(data.newValue)))
+										unresolved.put(change, data);
+									change.setData(new IssueTitleChangeData(summarizeLinkedIssue(data.oldValue),
+											summarizeLinkedIssue(data.newValue)));
+								}
 							}
-						}
 
-						// assigned_to --> custom field "Assignees"
-						JsonNode assigneeNode = issueNode.get("assigned_to");
-						if (assigneeNode != null) {
-							redmineUserId = assigneeNode.get("id").asText();
-							user = getUser(client, redmineUserId);
-							if (user != null) {
-								issue.setFieldValue(importOption.getAssigneesIssueField(), user.getName());
+							if (deferrable && refersToIssueMappedLater(issue)) {
+								unmigrated.add(issue);
 							} else {
-								nonExistentLogins.add(assigneeNode.get("name").asText() + ":" + redmineUserId);
+								if (issue.getDescription() != null)
+									issue.setDescription(migrator.migratePrefixed(issue.getDescription(), "#"));
+								for (IssueComment comment: issue.getComments())
+									comment.setContent(migrator.migratePrefixed(comment.getContent(),  "#"));
 							}
-						}
 
-						// category --> custom field "Category"
-						JsonNode categoryNode = issueNode.get("category");
-						String categoryValue = (categoryNode != null) ? categoryNode.get("name").asText() : null;
-						issue.setFieldValue(importOption.getCategoryIssueField(), categoryValue);
-
-						// start_date --> custom field
-						JsonNode startDateNode = issueNode.get("start_date");
-						if (startDateNode != null) {
-							String startDate = startDateNode.asText(null);
-							if (importOption.getStartDateField() != null)
-								issue.setFieldValue(importOption.getStartDateField(), startDate);
-							else
-								extraIssueInfo.put("Start date", HtmlEscape.escapeHtml5(startDate));
+							dao.persist(issue);
+							for (IssueSchedule schedule: issue.getSchedules())
+								dao.persist(schedule);
+							for (IssueField field: issue.getFields())
+								dao.persist(field);
+							for (IssueComment comment: issue.getComments())
+								dao.persist(comment);
+							for (IssueChange change: issue.getChanges())
+								dao.persist(change);
+							for (IssueWatch watch: issue.getWatches())
+								dao.persist(watch);
 						}
 
-						// due_date --> custom field
-						JsonNode dueDateNode = issueNode.get("due_date");
-						if (dueDateNode != null) {
-							String dueDate = dueDateNode.asText(null);
-							if (importOption.getDueDateField() != null)
-								issue.setFieldValue(importOption.getDueDateField(), dueDate);
-							else
-								extraIssueInfo.put("Due date", HtmlEscape.escapeHtml5(dueDate));
+						for (IssueLink issueLink: issueLinks)
+							dao.persist(issueLink);
+					});
+
+					linkSpecs.clear();
+					for (Map.Entry<Long, Issue> entry: issuesMap.entrySet())
+						persistedIssues.put(entry.getKey(), entry.getValue().getId());
+					for (Issue issue: unmigrated)
+						unmigratedIssues.add(issue.getId());
+					for (Map.Entry<IssueChange, TempIssueLinkChangeData> entry: unresolved.entrySet())
+						unresolvedLinkChanges.put(entry.getKey().getId(), entry.getValue());
+					numOfPersistedIssues += issuesMap.size();
+
+					if (chunked) {
+						Map<Long, Long> committedNumbers = new LinkedHashMap<>();
+						for (Map.Entry<Long, Issue> entry: issuesMap.entrySet())
+							committedNumbers.put(entry.getKey(), entry.getValue().getNumber());
+						Map<Long, String[]> committedLinkChanges = new LinkedHashMap<>();
+						for (Map.Entry<IssueChange, TempIssueLinkChangeData> entry: unresolved.entrySet()) {
+							committedLinkChanges.put(entry.getKey().getId(),
+									new String[] {entry.getValue().oldValue, entry.getValue().newValue});
 						}
-
-						// done_ratio --> custom field
-						JsonNode doneRatioNode = issueNode.get("done_ratio");
-						if (doneRatioNode != null) {
-							int doneRatio = doneRatioNode.asInt(-1);
-							if (importOption.getDoneRatioField() != null)
-								issue.setFieldValue(importOption.getDoneRatioField(), doneRatio);
-							else
-								extraIssueInfo.put("% Done", HtmlEscape.escapeHtml5(doneRatio + "%"));
+						List<Long> committedUnmigrated = new ArrayList<>();
+						for (Issue issue: unmigrated)
+							committedUnmigrated.add(issue.getId());
+						resumeMarker.addChunk(committedNumbers, committedUnmigrated, committedLinkChanges);
+
+						Session session = OneDev.getInstance(SessionManager.class).getSession();
+						for (Issue issue: issuesMap.values()) {
+							for (IssueSchedule schedule: issue.getSchedules())
+								session.evict(schedule);
+							for (IssueField field: issue.getFields())
+								session.evict(field);
+							for (IssueComment comment: issue.getComments())
+								session.evict(comment);
+							for (IssueChange change: issue.getChanges())
+								session.evict(change);
+							for (IssueWatch watch: issue.getWatches())
+								session.evict(watch);
+							session.evict(issue);
 						}
+						for (IssueLink issueLink: issueLinks)
+							session.evict(issueLink);
+						logger.log("Committed " + numOfPersistedIssues + "/" + total + " issues");
+					}
+					issuesMap.clear();
+					issueLinks.clear();
+				}
 
-						// estimated_hours --> custom field
-						JsonNode estimatedHoursNode = issueNode.get("estimated_hours");
-						if (estimatedHoursNode != null) {
-							int estimatedHours = estimatedHoursNode.asInt(-1);
-							if (importOption.getEstimatedHoursField() != null)
-								issue.setFieldValue(importOption.getEstimatedHoursField(), estimatedHours);
-							else
-								extraIssueInfo.put("Estimated time", HtmlEscape.escapeHtml5(estimatedHoursNode.asText(null)));
+				/*
+				 * Migrate references of committed issues to issues mapped after them, now that
+				 * numbers of all issues are known.
+				 */
+				void migrateLaterReferences() {
+					if (unmigratedIssues.isEmpty() && unresolvedLinkChanges.isEmpty()) {
+						if (chunked)
+							resumeMarker.delete();
+						return;
+					}
+
+					logger.log("Migrating references to issues of later chunks...");
+					ReferenceMigrator migrator = new ReferenceMigrator(Issue.class, issueNumberMappings);
+					Dao dao = OneDev.getInstance(Dao.class);
+					TransactionManager transactionManager = OneDev.getInstance(TransactionManager.class);
+					Session session = OneDev.getInstance(SessionManager.class).getSession();
+					for (List<Long> issueIds: Lists.partition(unmigratedIssues, importOption.getIssuesPerTransaction())) {
+						transactionManager.run(() -> {
+							for (Long issueId: issueIds) {
+								Issue issue = dao.load(Issue.class, issueId);
+								if (issue.getDescription() != null)
+									issue.setDescription(migrator.migratePrefixed(issue.getDescription(), "#"));
+								for (IssueComment comment: issue.getComments())
+									comment.setContent(migrator.migratePrefixed(comment.getContent(),  "#"));
+							}
+						});
+						session.clear();
+						// migrating again would map numbers already migrated
+						resumeMarker.removeUnmigrated(issueIds);
+					}
+					transactionManager.run(() -> {
+						for (Map.Entry<Long, TempIssueLinkChangeData> entry: unresolvedLinkChanges.entrySet()) {
+							TempIssueLinkChangeData data = entry.getValue();
+							dao.load(IssueChange.class, entry.getKey()).setData(new IssueTitleChangeData(
+									summarizeLinkedIssue(data.oldValue), summarizeLinkedIssue(data.newValue)));
 						}
+					});
+					session.clear();
+					resumeMarker.delete();
+				}
 
-						// custom_fields
-						JsonNode customFieldsNode = issueNode.get("custom_fields");
-						if (customFieldsNode != null) {
-							for (JsonNode customFieldNode : customFieldsNode) {
-								String fieldName = customFieldNode.get("name").asText();
-								JsonNode valueNode = customFieldNode.get("value");
-								if (valueNode == null)
-									continue;
+				void logCommitted() {
+					if (chunked && numOfPersistedIssues != 0) {
+						logger.log("Import failed with " + numOfPersistedIssues + " issues committed, run it again to resume");
+					}
+				}
 
-								Object value;
-								if (valueNode.isArray()) {
-									List<String> values = new ArrayList<>();
-									for (JsonNode node : valueNode)
-										values.add(node.asText());
-									if (values.isEmpty())
-										continue;
-									value = values;
-								} else {
-									value = valueNode.asText();
-									if (((String)value).isEmpty())
-										continue;
-								}
+				private void importIssue(PreparedIssue preparedIssue) throws InterruptedException {
+					if (Thread.interrupted())
+						throw new InterruptedException();
+
+					JsonNode issueNode = preparedIssue.issueNode;
+					JsonNode issueNode2 = preparedIssue.detailNode;
+
+					Map<String, String> extraIssueInfo = new LinkedHashMap<>();
+
+					Issue issue = new Issue();
+					issue.setProject(oneDevProject);
+					issue.setNumberScope(oneDevProject.getForkRoot());
+
+					// initialize all custom fields
+					for (FieldSpec fieldSpec : issueSetting.getFieldSpecs())
+						issue.setFieldValue(fieldSpec.getName(), null);
+
+					// subject --> title
+					issue.setTitle(issueNode.get("subject").asText());
+
+					// description --> description
+					issue.setDescription(preparedIssue.description);
+
+					// issue id --> number
+					Long oldNumber = issueNode.get("id").asLong();
+					Long newNumber;
+					Long committedNumber = chunked ? resumeMarker.getIssueNumber(oldNumber) : null;
+					Issue committedIssue = committedNumber != null
+							? OneDev.getInstance(IssueManager.class).find(oneDevProject, committedNumber)
+							: null;
+					if (committedIssue != null) {
+						// committed by an interrupted run of this import, only links to issues imported now are missing
+						issueNumberMappings.put(oldNumber, committedNumber);
+						persistedIssues.put(oldNumber, committedIssue.getId());
+						resumedIssues.add(oldNumber);
+						lastOldNumber = oldNumber;
+						linkIssue(oldNumber, issueNode, issueNode2);
+						return;
+					}
+					if (importOption.isUseExistingIssueIDs() && OneDev.getInstance(IssueManager.class).find(oneDevProject, oldNumber) != null)
+						throw new ExplicitException("An issue with ID " + oldNumber + " already exists.");
+					if (dryRun || importOption.isUseExistingIssueIDs())
+						newNumber = oldNumber;
+					else
+						newNumber = OneDev.getInstance(IssueManager.class).getNextNumber(oneDevProject);
+					issue.setNumber(newNumber);
+					issueNumberMappings.put(oldNumber, newNumber);
+
+					// status --> state
+					String status = issueNode.get("status").get("name").asText();
+					String state = statusMappings.getOrDefault(status, initialIssueState);
+					issue.setState(state);
+
+					// fixed_version ("Target version") --> milestone
+					if (issueNode.hasNonNull("fixed_version")) {
+						String milestoneName = issueNode.get("fixed_version").get("name").asText();
+						Milestone milestone = milestoneMappings.get(milestoneName);
+						if (milestone != null) {
+							IssueSchedule schedule = new IssueSchedule();
+							schedule.setIssue(issue);
+							schedule.setMilestone(milestone);
+							issue.getSchedules().add(schedule);
+						} else {
+							extraIssueInfo.put("Milestone", milestoneName);
+							nonExistentMilestones.add(milestoneName);
+						}
+					}
 
-								FieldSpec mapped = fieldMappings.get(fieldName);
-								if (mapped != null) {
-									if (mapped.getType().equals(InputSpec.MILESTONE) && value instanceof String)
-										value = findSimilarMilestone((String) value, milestoneMappings);
+					// author --> submitter
+					String redmineUserId = issueNode.get("author").get("id").asText(null);
+					User user = getUser(rc, redmineUserId);
+					if (user != null) {
+						issue.setSubmitter(user);
+					} else {
+						issue.setSubmitter(OneDev.getInstance(UserManager.class).getUnknown());
+						nonExistentLogins.add(issueNode.get("author").get("name").asText() + ":" + redmineUserId);
+					}
 
-									issue.setFieldValue(fieldName, value);
-								} else {
-									@SuppressWarnings("unchecked")
-									String v = (value instanceof List)
-										? joinAsMultilineHtml((List<String>)value)
-										: HtmlEscape.escapeHtml5((String) value);
-									extraIssueInfo.put(fieldName, v);
-									unmappedIssueFields.add(fieldName);
-								}
-							}
+					// created_on --> submit date
+					issue.setSubmitDate(ISODateTimeFormat.dateTimeNoMillis()
+							.parseDateTime(issueNode.get("created_on").asText())
+							.toDate());
+
+					LastActivity lastUpdate = new LastActivity();
+					lastUpdate.setDescription("opened");
+					lastUpdate.setDate(issue.getSubmitDate());
+					lastUpdate.setUser(issue.getSubmitter());
+
+					// tracker --> custom field "Type"
+					JsonNode trackerNode = issueNode.get("tracker");
+					if (trackerNode != null) {
+						String trackerName = trackerNode.get("name").asText();
+						Pair<FieldSpec, String> mapped = trackerMappings.get(trackerName);
+						if (mapped != null) {
+							issue.setFieldValue(mapped.getLeft().getName(), mapped.getRight());
+						} else {
+							extraIssueInfo.put("Type", HtmlEscape.escapeHtml5(trackerName));
+							unmappedIssueTypes.add(HtmlEscape.escapeHtml5(trackerName));
 						}
+					}
 
-						if(statusDependingFields.containsKey(status)) {
-							Pair<FieldSpec, String> mapped = statusDependingFields.get(status);
+					// priority --> custom field "Priority"
+					JsonNode priorityNode = issueNode.get("priority");
+					if (priorityNode != null) {
+						String priorityName = priorityNode.get("name").asText();
+						Pair<FieldSpec, String> mapped = priorityMappings.get(priorityName);
+						if (mapped != null) {
 							issue.setFieldValue(mapped.getLeft().getName(), mapped.getRight());
+						} else {
+							extraIssueInfo.put("Priority", HtmlEscape.escapeHtml5(priorityName));
+							unmappedIssuePriorities.add(priorityName);
 						}
+					}
 
-						// get additional issue information
-						String apiEndpoint = server.getApiEndpoint("/issues/" + oldNumber + ".json?include=relations,watchers,attachments,journals");
-						JsonNode issueNode2 = JerseyUtils.get(client, apiEndpoint, logger).get("issue");
-
-						// relations --> links
-						JsonNode relationsNode = issueNode2.get("relations");
-						if (relationsNode != null) {
-							// since Redmine returns relation information in both issues,
-							// put it into a map using relation ID as key to eliminate duplicates
-							for (JsonNode relationNode: relationsNode)
-								redmineRelations.put(relationNode.get("id").asText(), relationNode);
+					// assigned_to --> custom field "Assignees"
+					JsonNode assigneeNode = issueNode.get("assigned_to");
+					if (assigneeNode != null) {
+						redmineUserId = assigneeNode.get("id").asText();
+						user = getUser(rc, redmineUserId);
+						if (user != null) {
+							issue.setFieldValue(importOption.getAssigneesIssueField(), user.getName());
+						} else {
+							nonExistentLogins.add(assigneeNode.get("name").asText() + ":" + redmineUserId);
 						}
+					}
 
-						// watchers --> watches
-						JsonNode watchersNode = issueNode2.get("watchers");
-						if (watchersNode != null) {
-							for (JsonNode watcherNode: watchersNode) {
-								redmineUserId = watcherNode.get("id").asText();
-								user = getUser(client, redmineUserId);
-								if (user != null) {
-									IssueWatch watch = new IssueWatch();
-									watch.setIssue(issue);
-									watch.setUser(user);
-									watch.setWatching(true);
-									issue.getWatches().add(watch);
-								} else {
-									user = OneDev.getInstance(UserManager.class).getUnknown();
-									nonExistentLogins.add(watcherNode.get("name").asText() + ":" + redmineUserId);
-								}
+					// category --> custom field "Category"
+					JsonNode categoryNode = issueNode.get("category");
+					String categoryValue = (categoryNode != null) ? categoryNode.get("name").asText() : null;
+					issue.setFieldValue(importOption.getCategoryIssueField(), categoryValue);
+
+					// start_date --> custom field
+					JsonNode startDateNode = issueNode.get("start_date");
+					if (startDateNode != null) {
+						String startDate = startDateNode.asText(null);
+						if (importOption.getStartDateField() != null)
+							issue.setFieldValue(importOption.getStartDateField(), startDate);
+						else
+							extraIssueInfo.put("Start date", HtmlEscape.escapeHtml5(startDate));
+					}
+
+					// due_date --> custom field
+					JsonNode dueDateNode = issueNode.get("due_date");
+					if (dueDateNode != null) {
+						String dueDate = dueDateNode.asText(null);
+						if (importOption.getDueDateField() != null)
+							issue.setFieldValue(importOption.getDueDateField(), dueDate);
+						else
+							extraIssueInfo.put("Due date", HtmlEscape.escapeHtml5(dueDate));
+					}
+
+					// done_ratio --> custom field
+					JsonNode doneRatioNode = issueNode.get("done_ratio");
+					if (doneRatioNode != null) {
+						int doneRatio = doneRatioNode.asInt(-1);
+						if (importOption.getDoneRatioField() != null)
+							issue.setFieldValue(importOption.getDoneRatioField(), doneRatio);
+						else
+							extraIssueInfo.put("% Done", HtmlEscape.escapeHtml5(doneRatio + "%"));
+					}
+
+					// estimated_hours --> custom field
+					JsonNode estimatedHoursNode = issueNode.get("estimated_hours");
+					if (estimatedHoursNode != null) {
+						int estimatedHours = estimatedHoursNode.asInt(-1);
+						if (importOption.getEstimatedHoursField() != null)
+							issue.setFieldValue(importOption.getEstimatedHoursField(), estimatedHours);
+						else
+							extraIssueInfo.put("Estimated time", HtmlEscape.escapeHtml5(estimatedHoursNode.asText(null)));
+					}
+
+					// custom_fields
+					JsonNode customFieldsNode = issueNode.get("custom_fields");
+					if (customFieldsNode != null) {
+						for (JsonNode customFieldNode : customFieldsNode) {
+							String fieldName = customFieldNode.get("name").asText();
+							JsonNode valueNode = customFieldNode.get("value");
+							if (valueNode == null)
+								continue;
+
+							Object value;
+							if (valueNode.isArray()) {
+								List<String> values = new ArrayList<>();
+								for (JsonNode node : valueNode)
+									values.add(node.asText());
+								if (values.isEmpty())
+									continue;
+								value = values;
+							} else {
+								value = valueNode.asText();
+								if (((String)value).isEmpty())
+									continue;
 							}
-						}
 
-						// attachments
-						JsonNode attachmentsNode = issueNode2.get("attachments");
-						if (!dryRun && attachmentsNode != null) {
-							List<JsonNode> attachmentNodes = new ArrayList<>();
-							for (JsonNode attachmentNode: attachmentsNode)
-								attachmentNodes.add(attachmentNode);
-							if (!attachmentNodes.isEmpty()) {
-								issue.setDescription(processAttachments(issue.getUUID(), "#" + oldNumber,
-										issue.getDescription(), attachmentNodes, tooLargeAttachments));
+							FieldSpec mapped = fieldMappings.get(fieldName);
+							if (mapped != null) {
+								if (mapped.getType().equals(InputSpec.MILESTONE) && value instanceof String)
+									value = findSimilarMilestone((String) value, milestoneMappings);
+
+								issue.setFieldValue(fieldName, value);
+							} else {
+								@SuppressWarnings("unchecked")
+								String v = (value instanceof List)
+									? joinAsMultilineHtml((List<String>)value)
+									: HtmlEscape.escapeHtml5((String) value);
+								extraIssueInfo.put(fieldName, v);
+								unmappedIssueFields.add(fieldName);
 							}
 						}
+					}
+
+					if(statusDependingFields.containsKey(status)) {
+						Pair<FieldSpec, String> mapped = statusDependingFields.get(status);
+						issue.setFieldValue(mapped.getLeft().getName(), mapped.getRight());
+					}
 
-						// journals ("History") --> comments, changes
-						JsonNode journalsNode = issueNode2.get("journals");
-						for (JsonNode journalNode: journalsNode) {
-							redmineUserId = journalNode.get("user").get("id").asText();
-							user = getUser(client, redmineUserId);
-							if (user == null) {
+					// watchers --> watches
+					JsonNode watchersNode = issueNode2.get("watchers");
+					if (watchersNode != null) {
+						for (JsonNode watcherNode: watchersNode) {
+							redmineUserId = watcherNode.get("id").asText();
+							user = getUser(rc, redmineUserId);
+							if (user != null) {
+								IssueWatch watch = new IssueWatch();
+								watch.setIssue(issue);
+								watch.setUser(user);
+								watch.setWatching(true);
+								issue.getWatches().add(watch);
+							} else {
 								user = OneDev.getInstance(UserManager.class).getUnknown();
-								nonExistentLogins.add(journalNode.get("user").get("name").asText() + ":" + redmineUserId);
+								nonExistentLogins.add(watcherNode.get("name").asText() + ":" + redmineUserId);
 							}
+						}
+					}
 
-							Date createdOn = ISODateTimeFormat.dateTimeNoMillis()
-									.parseDateTime(journalNode.get("created_on").asText())
-									.toDate();
-
-							IssueComment comment = null;
-							JsonNode notesNode = journalNode.get("notes");
-							String notes = convertText((notesNode != null) ? notesNode.asText() : "");
-							if (!notes.isEmpty()) {
-								comment = new IssueComment();
-								comment.setIssue(issue);
-								comment.setContent(notes);
-								comment.setUser(user);
-								comment.setDate(createdOn);
-
-								issue.getComments().add(comment);
-								issue.setCommentCount(issue.getCommentCount() + 1);
-
-								lastUpdate.setDescription("commented");
-								lastUpdate.setDate(comment.getDate());
-								lastUpdate.setUser(comment.getUser());
+					// attachments, saved in the background and linked into the description later
+					PendingAttachments attachments = null;
+					JsonNode attachmentsNode = issueNode2.get("attachments");
+					if (!dryRun && attachmentsNode != null) {
+						List<JsonNode> attachmentNodes = new ArrayList<>();
+						for (JsonNode attachmentNode: attachmentsNode) {
+							String attachmentName = attachmentNode.get("filename").asText(null);
+							String attachmentUrl = attachmentNode.get("content_url").asText(null);
+							long attachmentSize = attachmentNode.get("filesize").asLong(0);
+							if (attachmentSize != 0 && attachmentName != null && attachmentUrl != null) {
+								if (attachmentSize >  maxUploadFileSize)
+									tooLargeAttachments.add("#" + oldNumber + ":" + attachmentName);
+								else
+									attachmentNodes.add(attachmentNode);
 							}
+						}
+						if (!attachmentNodes.isEmpty()) {
+							attachments = new PendingAttachments(issue, attachmentNodes,
+									submitAttachments(issue.getUUID(), attachmentNodes));
+							pendingAttachments.add(attachments);
+						}
+					}
 
-							JsonNode detailsNode = journalNode.get("details");
-							if (detailsNode != null) {
-								Map<String, Input> oldFields = new LinkedHashMap<>();
-								Map<String, Input> newFields = new LinkedHashMap<>();
-
-								for (JsonNode detailNode : detailsNode) {
-									String property = detailNode.get("property").asText();
-									String name = detailNode.get("name").asText();
-									JsonNode oldValueNode = detailNode.get("old_value");
-									JsonNode newValueNode = detailNode.get("new_value");
-									String oldValue = (oldValueNode != null) ? oldValueNode.asText(null) : null;
-									String newValue = (newValueNode != null) ? newValueNode.asText(null) : null;
-									IssueChangeData data = null;
-
-									if ("attr".equals(property)) {
-										if ("subject".equals(name)) {
-											data = new IssueTitleChangeData(oldValue, newValue);
-										} else if ("description".equals(name)) {
-											// not migrated because OneDev does not support description history
-										} else if ("status_id".equals(name)) {
-											// do not convert Redmine status to OneDev state for change history
-											String oldStatus = statusId2nameMap.get(oldValue);
-											String newStatus = statusId2nameMap.get(newValue);
-											data = new IssueStateChangeData(oldStatus, newStatus, Collections.emptyMap(), Collections.emptyMap());
-										} else if ("author_id".equals(name)) {
-											String fieldName = "Author ID";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else if ("parent_id".equals(name)) {
-											String fieldName = "Parent ID";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										}else if ("tracker_id".equals(name)) {
-											// do not convert Redmine tracker to OneDev type for change history
-											String oldTracker = trackerId2nameMap.get(oldValue);
-											String newTracker = trackerId2nameMap.get(newValue);
-											addToFields("Type", oldTracker, oldFields);
-											addToFields("Type", newTracker, newFields);
-										} else if ("priority_id".equals(name)) {
-											// do not convert Redmine priority to OneDev priority for change history
-											String oldPriority = priorityId2nameMap.get(oldValue);
-											String newPriority = priorityId2nameMap.get(newValue);
-											addToFields("Priority", oldPriority, oldFields);
-											addToFields("Priority", newPriority, newFields);
-										} else if ("assigned_to_id".equals(name)) {
-											if (oldValue != null) {
-												User oldUser = getUser(client, oldValue);
-												if (oldUser != null)
-													addToFields(importOption.getAssigneesIssueField(), oldUser.getName(), oldFields);
-												else
-													nonExistentLogins.add(userId2nameMap.getOrDefault(oldValue, "") + ":" + oldValue);
-											}
-											if (newValue != null) {
-												User newUser = getUser(client, newValue);
-												if (newUser != null)
-													addToFields(importOption.getAssigneesIssueField(), newUser.getName(), newFields);
-												else
-													nonExistentLogins.add(userId2nameMap.getOrDefault(newValue, "") + ":" + newValue);
-											}
-										} else if ("category_id".equals(name)) {
-											String oldCategory = categoryId2nameMap.get(oldValue);
-											String newCategory = categoryId2nameMap.get(newValue);
-											addToFields(importOption.getCategoryIssueField(), oldCategory, oldFields);
-											addToFields(importOption.getCategoryIssueField(), newCategory, newFields);
-										} else if ("fixed_version_id".equals(name)) {
-											String oldVersion = versionId2nameMap.get(oldValue);
-											String newVersion = versionId2nameMap.get(newValue);
-											if (oldVersion != null && newVersion != null) {
-												Milestone oldMilestone = new Milestone();
-												Milestone newMilestone = new Milestone();
-												oldMilestone.setName(oldVersion);
-												newMilestone.setName(newVersion);
-												data = new IssueMilestoneChangeData(Collections.singletonList(oldMilestone), Collections.singletonList(newMilestone));
-											} else if (newVersion != null) {
-												data = new IssueMilestoneAddData(newVersion);
-											} else if (oldVersion != null) {
-												data = new IssueMilestoneRemoveData(oldVersion);
-											}
-										} else if ("start_date".equals(name)) {
-											String fieldName = importOption.getStartDateField();
-											if (fieldName == null)
-												fieldName = "Start date";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else if ("due_date".equals(name)) {
-											String fieldName = importOption.getDueDateField();
-											if (fieldName == null)
-												fieldName = "Due date";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else if ("done_ratio".equals(name)) {
-											String fieldName = importOption.getDoneRatioField();
-											if (fieldName == null)
-												fieldName = "Done Ratio";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else if ("estimated_hours".equals(name)) {
-											String fieldName = importOption.getEstimatedHoursField();
-											if (fieldName == null)
-												fieldName = "Estimated Hours";
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else {
-											resultNotes.add(String.format(
-												"Unknown history property name '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
-												HtmlEscape.escapeHtml5(name), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
-										}
-									} else if ("relation".equals(property)) {
-										String linkName;
-										switch (detailNode.get("name").asText()) {
-											case "relates":     linkName = "Related To"; break;
-											case "duplicates":  linkName = "Duplicating"; break;
-											case "duplicated":  linkName = "Duplicated By"; break;
-											case "blocks":      linkName = "Blocking"; break;
-											case "blocked":     linkName = "Blocked By"; break;
-											case "precedes":    linkName = "Precedes"; break;
-											case "follows":     linkName = "Follows"; break;
-											case "copied_to":   linkName = "Copied To"; break;
-											case "copied_from": linkName = "Copied From"; break;
-											default:            linkName = "Unknown"; break;
-										}
-										data = new TempIssueLinkChangeData(linkName, oldValue, newValue);
-									} else if ("cf".equals(property)) {
-										// custom fields
-										String fieldName = fieldId2nameMap.get(name);
-										if (fieldName != null) {
-											addToFields(fieldName, oldValue, oldFields);
-											addToFields(fieldName, newValue, newFields);
-										} else {
-											resultNotes.add(String.format(
-												"Unknown history custom field '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
-												HtmlEscape.escapeHtml5(name), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
-										}
-									} else if ("attachment".equals(property) || "attachment_version".equals(property)) {
-										// not migrated because OneDev does not support attachment history
-									} else {
-										resultNotes.add(String.format(
-											"Unknown history property '%s' in Redmine issue <a href=\"%s\">#%d</a> (<a href=\"%s\">JSON</a>)",
-											HtmlEscape.escapeHtml5(property), server.getApiEndpoint("/issues/" + oldNumber), oldNumber, apiEndpoint));
-									}
+					// journals ("History") --> comments, changes
+					for (PreparedJournal journal: preparedIssue.journals) {
+						JsonNode journalNode = journal.journalNode;
+						redmineUserId = journalNode.get("user").get("id").asText();
+						user = getUser(rc, redmineUserId);
+						if (user == null) {
+							user = OneDev.getInstance(UserManager.class).getUnknown();
+							nonExistentLogins.add(journalNode.get("user").get("name").asText() + ":" + redmineUserId);
+						}
 
-									if (data != null) {
-										IssueChange issueChange = new IssueChange();
-										issueChange.setIssue(issue);
-										issueChange.setDate(createdOn);
-										issueChange.setUser(user);
-										issueChange.setData(data);
+						Date createdOn = journal.createdOn;
 
-										issue.getChanges().add(issueChange);
+						IssueComment comment = null;
+						if (!journal.notes.isEmpty()) {
+							comment = new IssueComment();
+							comment.setIssue(issue);
+							comment.setContent(journal.notes);
+							comment.setUser(user);
+							comment.setDate(createdOn);
 
-										lastUpdate.setDescription(issueChange.getData().getActivity());
-										lastUpdate.setDate(issueChange.getDate());
-										lastUpdate.setUser(issueChange.getUser());
-									}
-								}
+							issue.getComments().add(comment);
+							issue.setCommentCount(issue.getCommentCount() + 1);
+
+							lastUpdate.setDescription("commented");
+							lastUpdate.setDate(comment.getDate());
+							lastUpdate.setUser(comment.getUser());
+						}
 
-								if (!oldFields.isEmpty() || !newFields.isEmpty()) {
+						if (journal.details != null) {
+							Map<String, Input> oldFields = new LinkedHashMap<>();
+							Map<String, Input> newFields = new LinkedHashMap<>();
+
+							for (PreparedDetail detail: journal.details) {
+								if (detail.note != null) {
+									resultNotes.add(detail.note);
+								} else if (detail.assignee) {
+									if (detail.oldValue != null) {
+										User oldUser = getUser(rc, detail.oldValue);
+										if (oldUser != null)
+											addToFields(importOption.getAssigneesIssueField(), oldUser.getName(), oldFields);
+										else
+											nonExistentLogins.add(userId2nameMap.getOrDefault(detail.oldValue, "") + ":" + detail.oldValue);
+									}
+									if (detail.newValue != null) {
+										User newUser = getUser(rc, detail.newValue);
+										if (newUser != null)
+											addToFields(importOption.getAssigneesIssueField(), newUser.getName(), newFields);
+										else
+											nonExistentLogins.add(userId2nameMap.getOrDefault(detail.newValue, "") + ":" + detail.newValue);
+									}
+								} else if (detail.data == null) {
+									addToFields(detail.fieldName, detail.oldValue, oldFields);
+									addToFields(detail.fieldName, detail.newValue, newFields);
+								} else {
 									IssueChange issueChange = new IssueChange();
 									issueChange.setIssue(issue);
 									issueChange.setDate(createdOn);
 									issueChange.setUser(user);
-									issueChange.setData(new IssueFieldChangeData(oldFields, newFields));
+									issueChange.setData(detail.data);
 
 									issue.getChanges().add(issueChange);
 
@@ -957,34 +1719,50 @@ public class ImportUtils {
 									lastUpdate.setUser(issueChange.getUser());
 								}
 							}
-						}
 
-						if (!extraIssueInfo.isEmpty()) {
-							StringBuilder builder = new StringBuilder("|");
-							for (String key: extraIssueInfo.keySet())
-								builder.append(key).append("|");
-							builder.append("\n|");
-							extraIssueInfo.keySet().stream().forEach(it->builder.append("---|"));
-							builder.append("\n|");
-							for (String value: extraIssueInfo.values())
-								builder.append(value).append("|");
-
-							if (issue.getDescription() != null)
-								issue.setDescription(builder.toString() + "\n\n" + issue.getDescription());
-							else
-								issue.setDescription(builder.toString());
-						}
+							if (!oldFields.isEmpty() || !newFields.isEmpty()) {
+								IssueChange issueChange = new IssueChange();
+								issueChange.setIssue(issue);
+								issueChange.setDate(createdOn);
+								issueChange.setUser(user);
+								issueChange.setData(new IssueFieldChangeData(oldFields, newFields));
+
+								issue.getChanges().add(issueChange);
 
-						issue.setLastActivity(lastUpdate);
+								lastUpdate.setDescription(issueChange.getData().getActivity());
+								lastUpdate.setDate(issueChange.getDate());
+								lastUpdate.setUser(issueChange.getUser());
+							}
+						}
+					}
 
-						issues.add(issue);
-						issuesMap.put(oldNumber, issue);
+					String extraIssueInfoTable = null;
+					if (!extraIssueInfo.isEmpty()) {
+						StringBuilder builder = new StringBuilder("|");
+						for (String key: extraIssueInfo.keySet())
+							builder.append(key).append("|");
+						builder.append("\n|");
+						extraIssueInfo.keySet().stream().forEach(it->builder.append("---|"));
+						builder.append("\n|");
+						for (String value: extraIssueInfo.values())
+							builder.append(value).append("|");
+						extraIssueInfoTable = builder.toString();
 					}
+					if (attachments != null)
+						attachments.extraIssueInfo = extraIssueInfoTable;
+					else
+						issue.setDescription(withExtraIssueInfo(extraIssueInfoTable, issue.getDescription()));
 
-					logger.log("Imported " + numOfImportedIssues.addAndGet(pageData.size()) + "/" + this.getTotal()  + " issues");
+					issue.setLastActivity(lastUpdate);
+
+					issuesMap.put(oldNumber, issue);
+					lastOldNumber = oldNumber;
+
+					// parent, relations --> links
+					linkIssue(oldNumber, issueNode, issueNode2);
 				}
 
-			};
+			}
 
 
 			String importIssueIDs = importOption.getImportIssueIDs();
@@ -1026,139 +1804,28 @@ public class ImportUtils {
 
 			String apiEndpoint = server.getApiEndpoint("/issues.json?project_id=" + redmineProjectId + "&status_id=*&sort=id&assigned_to_id="
 					+ (importIssueIDs != null ? "&issue_id=" + importIssueIDs : ""));
-			rc.list(apiEndpoint, "issues", pageDataConsumer);
-
-			// replace temporary link change data
-			for (Issue issue : issues) {
-				for (IssueChange change : issue.getChanges()) {
-					if (change.getData() instanceof TempIssueLinkChangeData) {
-						TempIssueLinkChangeData data = (TempIssueLinkChangeData) change.getData();
-						String oldIssueSummary = null;
-						if (data.oldValue != null) {
-							Long oldNumber = new Long(data.oldValue);
-							Issue oldIssue = issuesMap.get(oldNumber);
-							oldIssueSummary = "#" + issueNumberMappings.getOrDefault(oldNumber, oldNumber)
-								+ (oldIssue != null ? " - " + oldIssue.getTitle() : "");
-						}
-						String newIssueSummary = null;
-						if (data.newValue != null) {
-							Long newNumber = new Long(data.newValue);
-							Issue newIssue = issuesMap.get(newNumber);
-							newIssueSummary = "#" + issueNumberMappings.getOrDefault(newNumber, newNumber)
-								+ (newIssue != null ? " - " + newIssue.getTitle() : "");
-						}
-
-						change.setData(new IssueTitleChangeData(oldIssueSummary, newIssueSummary));
-					}
-				}
-			}
-
-			// create OneDev links from Redmine relations
-			List<LinkSpec> linkSpecs = new ArrayList<>();
-			List<IssueLink> issueLinks = new ArrayList<>();
-			Map<String, LinkSpec> relationTypeMapping = new HashMap<>();
-			LinkSpecManager linkSpecManager = OneDev.getInstance(LinkSpecManager.class);
-			for (JsonNode relationNode : redmineRelations.values()) {
-				long issue_id = relationNode.get("issue_id").asLong();
-				long issue_to_id = relationNode.get("issue_to_id").asLong();
-				String relation_type = relationNode.get("relation_type").asText();
+			IssuePipeline pipeline = new IssuePipeline();
+			try {
+				pipeline.run(apiEndpoint);
+				pipeline.noteUnlinkedIssues();
 
-				Issue source = issuesMap.get(issue_to_id);
-				Issue target = issuesMap.get(issue_id);
+				if (!resumedIssues.isEmpty())
+					logger.log("Skipped " + resumedIssues.size() + " issues committed by an earlier import");
 
-				if (source == null) {
-					resultNotes.add(String.format(
-							"Relation to unknown issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
-							issue_to_id, server.getApiEndpoint("/issues/" + issue_id), issue_id));
-					continue;
+				if (!dryRun) {
+					pipeline.persistIssues(true);
+					pipeline.migrateLaterReferences();
 				}
-				if (target == null) {
-					resultNotes.add(String.format(
-							"Relation to unknown issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
-							issue_id, server.getApiEndpoint("/issues/" + issue_to_id), issue_to_id));
-					continue;
-				}
-
-				// create OneDev link specs (if necessary)
-				LinkSpec linkSpec = relationTypeMapping.computeIfAbsent(relation_type, k -> {
-					LinkSpec spec;
-					switch (relation_type) {
-						default:
-						case "relates":    spec = getOrCreateLinkSpec(linkSpecManager, "Related To", true, null, false, 10, linkSpecs); break;
-						case "duplicates": spec = getOrCreateLinkSpec(linkSpecManager, "Duplicated By", true, "Duplicating", true, 11, linkSpecs); break;
-						case "blocks":     spec = getOrCreateLinkSpec(linkSpecManager, "Blocked By", true, "Blocking", true, 12, linkSpecs); break;
-						case "precedes":   spec = getOrCreateLinkSpec(linkSpecManager, "Follows", true, "Precedes", true, 13, linkSpecs); break;
-						case "copied_to":  spec = getOrCreateLinkSpec(linkSpecManager, "Copied From", true, "Copied To", true, 14, linkSpecs); break;
-					}
-					return spec;
-				});
-
-				IssueLink link = new IssueLink();
-				link.setSource(source);
-				link.setTarget(target);
-				link.setSpec(linkSpec);
-				issueLinks.add(link);
+			} catch (InterruptedException e) {
+				pipeline.logCommitted();
+				throw new RuntimeException(e);
+			} catch (RuntimeException e) {
+				pipeline.logCommitted();
+				throw e;
 			}
 
-			// create OneDev links from Redmine subtasks
-			if (!redmineParents.isEmpty()) {
-				LinkSpec linkSpec = getOrCreateLinkSpec(linkSpecManager, "Child Issue", true, "Parent Issue", false, 15, linkSpecs);
-				for (Entry<Long, Long> entry : redmineParents.entrySet()) {
-					Long childNumber = entry.getKey();
-					Long parentNumber = entry.getValue();
-
-					Issue source = issuesMap.get(parentNumber);
-					Issue target = issuesMap.get(childNumber);
-
-					if (source == null) {
-						resultNotes.add(String.format(
-								"Unknown parent issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
-								parentNumber, server.getApiEndpoint("/issues/" + childNumber), childNumber));
-						continue;
-					}
-					if (target == null) {
-						resultNotes.add(String.format(
-								"Unknown child issue #%d in Redmine issue <a href=\"%s\">#%d</a>",
-								childNumber, server.getApiEndpoint("/issues/" + parentNumber), parentNumber));
-						continue;
-					}
-
-					IssueLink link = new IssueLink();
-					link.setSource(source);
-					link.setTarget(target);
-					link.setSpec(linkSpec);
-					issueLinks.add(link);
-				}
-			}
-
-			if (!dryRun) {
-				ReferenceMigrator migrator = new ReferenceMigrator(Issue.class, issueNumberMappings);
-				Dao dao = OneDev.getInstance(Dao.class);
-				for (Issue issue: issues) {
-					if (issue.getDescription() != null)
-						issue.setDescription(migrator.migratePrefixed(issue.getDescription(), "#"));
-
-					dao.persist(issue);
-					for (IssueSchedule schedule: issue.getSchedules())
-						dao.persist(schedule);
-					for (IssueField field: issue.getFields())
-						dao.persist(field);
-					for (IssueComment comment: issue.getComments()) {
-						comment.setContent(migrator.migratePrefixed(comment.getContent(),  "#"));
-						dao.persist(comment);
-					}
-					for (IssueChange change: issue.getChanges())
-						dao.persist(change);
-					for (IssueWatch watch: issue.getWatches())
-						dao.persist(watch);
-				}
-
-				for (LinkSpec linkSpec: linkSpecs)
-					linkSpecManager.create(linkSpec);
-
-				for (IssueLink issueLink: issueLinks)
-					dao.persist(issueLink);
-			}
+			if (!rc.getTransferStats().isEmpty())
+				logger.log(rc.getTransferStats().toString());
 
 			ImportResult result = new ImportResult();
 			result.nonExistentLogins.addAll(nonExistentLogins);
@@ -1178,7 +1845,11 @@ public class ImportUtils {
 			throw e;
 		}
 		finally {
-			client.close();
+			if (identityMap != null) {
+				identityMap.save();
+				// accounts created in the transaction of the import are remembered once it commits
+				OneDev.getInstance(TransactionManager.class).runAfterCommit(identityMap::save);
+			}
 		}
 	}
 
@@ -1209,97 +1880,97 @@ public class ImportUtils {
 	}
 
 	void importVersions() {
+		checkNotInterrupted();
 		boolean addWikiToMilestoneDescription = this.importOption.isAddWikiToMilestoneDescription();
 
-		Client client = server.newClient();
+		RedmineClient rc = newClient();
+
+		List<Milestone> milestones = new ArrayList<>();
+		logger.log("Importing versions from project ID:" + redmineProjectId + "...");
+		String apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/versions.json");
+		for (JsonNode versionNode: rc.list(apiEndpoint, "versions")) {
+			String name = versionNode.get("name").asText();
+			// milestones committed by an interrupted run of this import are left as they are
+			if (getResumeMarker() != null && getResumeMarker().hasMilestone(name)
+					&& oneDevProject.getMilestones().stream().anyMatch(it -> it.getName().equals(name))) {
+				continue;
+			}
 
-		try {
-			RedmineClient rc = new RedmineClient(client, this.logger);
-
-			List<Milestone> milestones = new ArrayList<>();
-			logger.log("Importing versions from project ID:" + redmineProjectId + "...");
-			String apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/versions.json");
-			for (JsonNode versionNode: rc.list(apiEndpoint, "versions")) {
-				Milestone milestone = new Milestone();
-				milestone.setName(versionNode.get("name").asText());
-				JsonNode descriptionNode = versionNode.get("description");
-				if (descriptionNode != null)
-					milestone.setDescription(descriptionNode.asText(null));
-				milestone.setProject(oneDevProject);
-				JsonNode dueDateNode = versionNode.get("due_date");
-				if (dueDateNode != null)
-					milestone.setDueDate(ISODateTimeFormat.date().parseDateTime(dueDateNode.asText()).toDate());
-				if (versionNode.get("status").asText().equals("closed"))
-					milestone.setClosed(true);
-
-				if (addWikiToMilestoneDescription) {
-					String wikiPageId = versionNode.get("name").asText().replace(' ', '_').replace(".", "");
-					apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/wiki/" + wikiPageId + ".json");
-					try {
-						JsonNode wikiPageNode = JerseyUtils.get(client, apiEndpoint, logger).get("wiki_page");
-						String wikiText = wikiPageNode.get("text").asText();
-						if (wikiText != null) {
-							String description = milestone.getDescription();
-							milestone.setDescription(description != null ? description + "\n\n" + wikiText : wikiText);
-						}
-					} catch (ExplicitException ex) {
-						// no associated wiki page
+			Milestone milestone = new Milestone();
+			milestone.setName(name);
+			JsonNode descriptionNode = versionNode.get("description");
+			if (descriptionNode != null)
+				milestone.setDescription(descriptionNode.asText(null));
+			milestone.setProject(oneDevProject);
+			JsonNode dueDateNode = versionNode.get("due_date");
+			if (dueDateNode != null)
+				milestone.setDueDate(ISODateTimeFormat.date().parseDateTime(dueDateNode.asText()).toDate());
+			if (versionNode.get("status").asText().equals("closed"))
+				milestone.setClosed(true);
+
+			if (addWikiToMilestoneDescription) {
+				String wikiPageId = versionNode.get("name").asText().replace(' ', '_').replace(".", "");
+				apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/wiki/" + wikiPageId + ".json");
+				try {
+					JsonNode wikiPageNode = rc.get(apiEndpoint).get("wiki_page");
+					String wikiText = wikiPageNode.get("text").asText();
+					if (wikiText != null) {
+						String description = milestone.getDescription();
+						milestone.setDescription(description != null ? description + "\n\n" + wikiText : wikiText);
 					}
+				} catch (ExplicitException ex) {
+					// no associated wiki page
 				}
+			}
 
-				milestones.add(milestone);
-				oneDevProject.getMilestones().add(milestone);
+			milestones.add(milestone);
+			oneDevProject.getMilestones().add(milestone);
 
-				if (!dryRun)
-					OneDev.getInstance(MilestoneManager.class).createOrUpdate(milestone);
-			}
-		} finally {
-			client.close();
+			if (!dryRun)
+				OneDev.getInstance(MilestoneManager.class).createOrUpdate(milestone);
 		}
+
+		if (getResumeMarker() != null && !milestones.isEmpty())
+			getResumeMarker().addMilestones(milestones.stream().map(Milestone::getName).collect(Collectors.toList()));
 	}
 
 	private void importIssueCategories() {
 
-		Client client = server.newClient();
-		RedmineClient rc = new RedmineClient(client, this.logger);
+		RedmineClient rc = newClient();
 
-		try {
-			String categoryIssueField = importOption.getCategoryIssueField();
+		String categoryIssueField = importOption.getCategoryIssueField();
 
-			GlobalIssueSetting issueSetting = getIssueSetting();
-			for (FieldSpec field : issueSetting.getFieldSpecs()) {
-				if (field.getName().equals(categoryIssueField)) {
-					logger.log("Issue Category '" + categoryIssueField + "' already exists");
-					return;
-				}
+		GlobalIssueSetting issueSetting = getIssueSetting();
+		for (FieldSpec field : issueSetting.getFieldSpecs()) {
+			if (field.getName().equals(categoryIssueField)) {
+				logger.log("Issue Category '" + categoryIssueField + "' already exists");
+				return;
 			}
+		}
 
-			List<Choice> choices = new ArrayList<>();
-			logger.log("Importing issue categories from project ID:" + redmineProjectId + "...");
-			String apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/issue_categories.json");
-			for (JsonNode categoryNode: rc.list(apiEndpoint, "issue_categories")) {
-				String name = categoryNode.get("name").asText();
+		List<Choice> choices = new ArrayList<>();
+		logger.log("Importing issue categories from project ID:" + redmineProjectId + "...");
+		String apiEndpoint = server.getApiEndpoint("/projects/" + redmineProjectId + "/issue_categories.json");
+		for (JsonNode categoryNode: rc.list(apiEndpoint, "issue_categories")) {
+			String name = categoryNode.get("name").asText();
 
-				Choice choice = new Choice();
-				choice.setValue(name);
-				choices.add(choice);
-			}
+			Choice choice = new Choice();
+			choice.setValue(name);
+			choices.add(choice);
+		}
 
-			SpecifiedChoices specifiedChoices = new SpecifiedChoices();
-			specifiedChoices.setChoices(choices);
+		SpecifiedChoices specifiedChoices = new SpecifiedChoices();
+		specifiedChoices.setChoices(choices);
 
-			ChoiceField field = new ChoiceField();
-			field.setName(categoryIssueField);
-			field.setNameOfEmptyValue("Undefined");
-			field.setAllowEmpty(true);
-			field.setChoiceProvider(specifiedChoices);
+		ChoiceField field = new ChoiceField();
+		field.setName(categoryIssueField);
+		field.setNameOfEmptyValue("Undefined");
+		field.setAllowEmpty(true);
+		field.setChoiceProvider(specifiedChoices);
 
-			if (!dryRun) {
-				issueSetting.getFieldSpecs().add(field);
-				OneDev.getInstance(SettingManager.class).saveIssueSetting(issueSetting);
-			}
-		} finally {
-			client.close();
+		if (!dryRun) {
+			issueSetting.getFieldSpecs().add(field);
+			OneDev.getInstance(SettingManager.class).saveIssueSetting(issueSetting);
 		}
 	}
 
@@ -1322,4 +1993,85 @@ public class ImportUtils {
 			this.newValue = newValue;
 		}
 	}
+
+	private static class PreparedIssue {
+
+		final JsonNode issueNode;
+		JsonNode detailNode;
+		String description;
+		final List<PreparedJournal> journals = new ArrayList<>();
+
+		PreparedIssue(JsonNode issueNode) {
+			this.issueNode = issueNode;
+		}
+	}
+
+	private static class PreparedJournal {
+
+		final JsonNode journalNode;
+		Date createdOn;
+		String notes;
+		// null if the journal has no details
+		List<PreparedDetail> details;
+
+		PreparedJournal(JsonNode journalNode) {
+			this.journalNode = journalNode;
+		}
+	}
+
+	/*
+	 * A history detail, either a change, values of a field, an assignee change to resolve
+	 * when mapping or a result note.
+	 */
+	private static class PreparedDetail {
+
+		IssueChangeData data;
+		String fieldName;
+		boolean assignee;
+		String oldValue;
+		String newValue;
+		String note;
+
+		static PreparedDetail change(IssueChangeData data) {
+			PreparedDetail detail = new PreparedDetail();
+			detail.data = data;
+			return detail;
+		}
+
+		static PreparedDetail fields(String fieldName, @Nullable String oldValue, @Nullable String newValue) {
+			PreparedDetail detail = new PreparedDetail();
+			detail.fieldName = fieldName;
+			detail.oldValue = oldValue;
+			detail.newValue = newValue;
+			return detail;
+		}
+
+		static PreparedDetail assignee(@Nullable String oldUserId, @Nullable String newUserId) {
+			PreparedDetail detail = new PreparedDetail();
+			detail.assignee = true;
+			detail.oldValue = oldUserId;
+			detail.newValue = newUserId;
+			return detail;
+		}
+
+		static PreparedDetail note(String note) {
+			PreparedDetail detail = new PreparedDetail();
+			detail.note = note;
+			return detail;
+		}
+	}
+
+	private static class PendingAttachments {
+
+		final Issue issue;
+		final List<JsonNode> attachmentNodes;
+		final List<Future<String>> savedNames;
+		String extraIssueInfo;
+
+		PendingAttachments(Issue issue, List<JsonNode> attachmentNodes, List<Future<String>> savedNames) {
+			this.issue = issue;
+			this.attachmentNodes = attachmentNodes;
+			this.savedNames = savedNames;
+		}
+	}
 }
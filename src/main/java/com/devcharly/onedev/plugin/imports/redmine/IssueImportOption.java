@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
 
 import io.onedev.server.annotation.ChoiceProvider;
 import io.onedev.server.annotation.Editable;
@@ -36,6 +37,7 @@ public class IssueImportOption implements Serializable {
 	private boolean addWikiToMilestoneDescription = false;
 	private boolean convertTextileToMarkdown;
 	private boolean useExistingIssueIDs = true;
+	private int issuesPerTransaction;
 
 	private String importIssueIDs;
 
@@ -163,6 +165,22 @@ public class IssueImportOption implements Serializable {
 		this.useExistingIssueIDs = useExistingIssueIDs;
 	}
 
+	@Editable(order=230, name="Issues per Transaction",
+			description = "If greater than 0, issues are committed while importing, in transactions of this many"
+					+ " issues in Redmine ID order, so a failed import keeps issues committed before. Running the same"
+					+ " import into the same project again resumes it, skipping milestones and issues it committed"
+					+ " before; other existing issues still conflict with 'Use existing issue IDs'. Until the import"
+					+ " completes, importing the Redmine project into the project with 0 here is refused, as it would"
+					+ " import committed issues twice. If 0, all issues are imported in one transaction.")
+	@Min(0)
+	public int getIssuesPerTransaction() {
+		return issuesPerTransaction;
+	}
+
+	public void setIssuesPerTransaction(int issuesPerTransaction) {
+		this.issuesPerTransaction = issuesPerTransaction;
+	}
+
 	@Editable(order=250, name="Import Issue IDs", description="Redmine issue IDs to import (all if empty; multiple IDs separated by <code>,</code>; ID range separated by <code>-</code>; maximum 300 issues).")
 	public String getImportIssueIDs() {
 		return importIssueIDs;
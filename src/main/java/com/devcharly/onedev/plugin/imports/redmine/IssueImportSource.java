@@ -1,12 +1,11 @@
 package com.devcharly.onedev.plugin.imports.redmine;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import javax.ws.rs.client.Client;
-
 import io.onedev.server.annotation.ChoiceProvider;
 import io.onedev.server.annotation.Editable;
 import io.onedev.server.annotation.ShowCondition;
@@ -17,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.web.util.WicketUtils;
 
@@ -91,7 +91,6 @@ public class IssueImportSource implements Serializable {
 
 		ImportServer server = WicketUtils.getPage().getMetaData(ImportServer.META_DATA_KEY);
 
-		Client client = server.newClient();
 		TaskLogger logger = new TaskLogger() {
 
 			@Override
@@ -100,17 +99,22 @@ public class IssueImportSource implements Serializable {
 			}
 
 		};
-		RedmineClient rm = new RedmineClient(client, logger);
+		RedmineClient rm = new RedmineClient(server, logger);
 
-		try {
+		try (RedmineSnapshot snapshot = server.openSnapshot(false)) {
+			rm.setSnapshot(snapshot);
 			String apiEndpoint = server.getApiEndpoint("/projects.json");
 			for (JsonNode projectNode: rm.list(apiEndpoint, "projects")) {
 				String projectName = projectNode.get("name").asText();
 				String projectId = projectNode.get("id").asText();
 				choices.add(projectName + ":" + projectId);
 			}
-		} finally {
-			client.close();
+		} catch (ExplicitException e) {
+			// project list is not part of a recorded snapshot, the project ID has to be provided instead
+			if (server.getSnapshotMode() != ImportServer.SnapshotMode.REPLAY)
+				throw e;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 
 		Collections.sort(choices);
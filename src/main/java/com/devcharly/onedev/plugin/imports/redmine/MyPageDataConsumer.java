@@ -1,8 +1,25 @@
 package com.devcharly.onedev.plugin.imports.redmine;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.onedev.server.util.JerseyUtils;
 
+import java.util.Collections;
+
 public interface MyPageDataConsumer extends JerseyUtils.PageDataConsumer {
     void setTotal(int total);
     int getTotal();
+
+    /**
+     * Called for every element as soon as it is decoded from the response stream.
+     * Defaults to handing the element over as a single-element page.
+     */
+    default void consumeElement(JsonNode element) throws InterruptedException {
+        consume(Collections.singletonList(element));
+    }
+
+    /**
+     * Called after all elements of a page have been handed over and the total is known.
+     */
+    default void pageDone(int pageSize) throws InterruptedException {
+    }
 }
@@ -0,0 +1,64 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+/**
+ * Tunes the <tt>limit</tt> parameter of a single Redmine list endpoint.
+ * <p>
+ * The page size grows while the response latency per element keeps improving, shrinks
+ * when responses get slow or fail, and never exceeds the cap the server revealed by
+ * returning short pages.
+ */
+class PageSizeTuner {
+
+	static final int MIN_PAGE_SIZE = 10;
+
+	static final int MAX_PAGE_SIZE = 500;
+
+	private static final long SLOW_RESPONSE_MILLIS = 15000;
+
+	private int pageSize;
+
+	private int cap = MAX_PAGE_SIZE;
+
+	private double bestMillisPerElement = Double.MAX_VALUE;
+
+	PageSizeTuner(int initialPageSize) {
+		pageSize = Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, initialPageSize));
+	}
+
+	synchronized int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @param requested	<tt>limit</tt> that was sent
+	 * @param received	number of elements returned
+	 * @param moreAvailable	whether the server has elements beyond the returned ones
+	 * @param latencyMillis	time until the response status was received
+	 */
+	synchronized void onSuccess(int requested, int received, boolean moreAvailable, long latencyMillis) {
+		if (received < requested && moreAvailable && received > 0) {
+			// server silently applied its own maximum
+			cap = Math.max(MIN_PAGE_SIZE, received);
+			pageSize = Math.min(pageSize, cap);
+			return;
+		}
+		if (received < requested || received == 0)
+			return;
+
+		double millisPerElement = (double) latencyMillis / received;
+		if (latencyMillis > SLOW_RESPONSE_MILLIS || millisPerElement > bestMillisPerElement * 1.3) {
+			pageSize = Math.max(MIN_PAGE_SIZE, pageSize * 3 / 4);
+			// let the baseline drift so a single lucky response does not pin the size down
+			bestMillisPerElement *= 1.1;
+		} else if (millisPerElement < bestMillisPerElement * 0.95) {
+			bestMillisPerElement = millisPerElement;
+			if (requested == pageSize)
+				pageSize = Math.min(cap, pageSize * 3 / 2);
+		}
+	}
+
+	synchronized void onFailure() {
+		pageSize = Math.max(MIN_PAGE_SIZE, pageSize / 2);
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of the issue import pipeline. Tasks of a stage run with at most the stage's
+ * number of threads, and the stage keeps the numbers needed to tell which stage limits
+ * throughput: time busy, time waiting (for a thread of the stage, for input or for room
+ * in the next queue) and the depth of its input queue.
+ */
+class PipelineStage {
+
+	private final String name;
+
+	private final int threads;
+
+	private final Semaphore permits;
+
+	private final AtomicInteger waitingForThread = new AtomicInteger();
+
+	private final LongAdder tasks = new LongAdder();
+
+	private final LongAdder busyNanos = new LongAdder();
+
+	private final LongAdder waitNanos = new LongAdder();
+
+	private final LongAdder depthSum = new LongAdder();
+
+	private final LongAdder depthSamples = new LongAdder();
+
+	private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+	PipelineStage(String name, int threads) {
+		this.name = name;
+		this.threads = Math.max(1, threads);
+		permits = new Semaphore(this.threads, true);
+	}
+
+	<T> T run(Task<T> task) throws InterruptedException {
+		recordQueueDepth(waitingForThread.getAndIncrement());
+		long startTime = System.nanoTime();
+		try {
+			permits.acquire();
+		} finally {
+			waitingForThread.decrementAndGet();
+		}
+		long runTime = System.nanoTime();
+		waitNanos.add(runTime - startTime);
+		try {
+			return task.run();
+		} finally {
+			busyNanos.add(System.nanoTime() - runTime);
+			tasks.increment();
+			permits.release();
+		}
+	}
+
+	void recordQueueDepth(int depth) {
+		depthSum.add(depth);
+		depthSamples.increment();
+		maxDepth.accumulate(depth);
+	}
+
+	void recordWait(long nanos) {
+		waitNanos.add(nanos);
+	}
+
+	@Override
+	public String toString() {
+		long samples = depthSamples.sum();
+		return String.format("%s: %d tasks on %d threads, busy %ds, waiting %ds, queue depth avg %.1f max %d",
+				name, tasks.sum(), threads, TimeUnit.NANOSECONDS.toSeconds(busyNanos.sum()),
+				TimeUnit.NANOSECONDS.toSeconds(waitNanos.sum()),
+				samples != 0 ? (double) depthSum.sum() / samples : 0.0, maxDepth.get());
+	}
+
+	interface Task<T> {
+
+		T run() throws InterruptedException;
+
+	}
+
+}
@@ -1,24 +1,88 @@
 package com.devcharly.onedev.plugin.imports.redmine;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.TaskLogger;
+import io.onedev.server.OneDev;
 import io.onedev.server.util.JerseyUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.lang.StringUtils;
 import org.apache.http.client.utils.URIBuilder;
 
-import javax.ws.rs.client.Client;
+import javax.annotation.Nullable;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 public class RedmineClient {
 
-    private final Client rmClient;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // keyed by endpoint URL without query, so every list endpoint converges to its own page size
+    private static final Map<String, PageSizeTuner> pageSizeTuners = new ConcurrentHashMap<>();
+
+    // reference data is listed with a fixed page size, so page URLs stay stable for revalidation
+    private static final int REFERENCE_PAGE_SIZE = 100;
+
+    private static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private static final Set<String> ENDPOINT_FAMILIES = Sets.newHashSet("issues", "users", "projects",
+            "attachments", "trackers", "issue_statuses", "enumerations", "custom_fields");
+
+    private final ImportServer server;
     private final TaskLogger odLogger;
+    private final int pageConcurrency;
+    private final TransferStats transferStats = new TransferStats();
+    private final RedmineDatabase.Reader database;
+    private RedmineSnapshot snapshot;
 
-    public RedmineClient(Client client, TaskLogger logger) {
-        this.rmClient = client;
+    public RedmineClient(ImportServer server, TaskLogger logger) {
+        this.server = server;
         this.odLogger = logger;
+        this.pageConcurrency = Math.max(1, server.getPageConcurrency());
+        RedmineDatabase database = OneDev.getInstance(RedmineConnectionManager.class).getDatabase(server);
+        this.database = database != null ? database.newReader() : null;
+    }
+
+    /**
+     * Record all responses to specified snapshot, or serve all requests from it if it is
+     * opened for replay.
+     */
+    void setSnapshot(@Nullable RedmineSnapshot snapshot) {
+        this.snapshot = snapshot;
     }
 
     List<JsonNode> list(String apiEndpoint, String dataNodeName) {
@@ -36,6 +100,11 @@ public class RedmineClient {
                 return total;
             }
 
+            @Override
+            public void consumeElement(JsonNode element) {
+                result.add(element);
+            }
+
             @Override
             public void consume(List<JsonNode> pageData) {
                 result.addAll(pageData);
@@ -54,36 +123,696 @@ public class RedmineClient {
             throw new RuntimeException(e);
         }
 
-        int offset = 0;
+        if (isReplaying()) {
+            replayPages(uri, dataNodeName, pageDataConsumer);
+            return;
+        } else if (database != null) {
+            listDatabase(uri, dataNodeName, pageDataConsumer);
+            return;
+        }
+
+        PageSizeTuner tuner = pageSizeTuners.computeIfAbsent(getEndpointKey(uri),
+                k -> new PageSizeTuner(ImportUtils.PER_PAGE));
+        try {
+            // the first page is decoded straight into the consumer
+            Page page = fetchPage(uri, 0, tuner.getPageSize(), dataNodeName, tuner, pageDataConsumer::consumeElement);
+            pageDataConsumer.setTotal(page.totalCount);
+            pageDataConsumer.pageDone(page.size);
+
+            if (page.totalCount <= 0 || page.size == 0 || page.size >= page.totalCount)
+                return;
+
+            if (pageConcurrency > 1)
+                listConcurrently(uri, dataNodeName, page, tuner, pageDataConsumer);
+            else
+                listSerially(uri, dataNodeName, page, tuner, pageDataConsumer);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void listSerially(URI uri, String dataNodeName, Page firstPage, PageSizeTuner tuner,
+            MyPageDataConsumer pageDataConsumer) throws InterruptedException {
+        int offset = firstPage.size;
         while (true) {
-            try {
-                URIBuilder builder = new URIBuilder(uri);
-                if (offset > 0)
-                    builder.addParameter("offset", String.valueOf(offset));
-                builder.addParameter("limit", String.valueOf(ImportUtils.PER_PAGE));
-                List<JsonNode> pageData = new ArrayList<>();
-                JsonNode resultNode = JerseyUtils.get(this.rmClient, builder.build().toString(), this.odLogger);
-                JsonNode dataNode = resultNode.get(dataNodeName);
-                for (JsonNode each: dataNode)
-                    pageData.add(each);
-                int totalCount = -1;
-                JsonNode totalCountNode = resultNode.get("total_count");
-                if (totalCountNode != null)
-                   totalCount = totalCountNode.asInt();
+            Page page = fetchPage(uri, offset, tuner.getPageSize(), dataNodeName, tuner,
+                    pageDataConsumer::consumeElement);
+            pageDataConsumer.setTotal(page.totalCount);
+            pageDataConsumer.pageDone(page.size);
 
-                pageDataConsumer.setTotal(totalCount);
-                pageDataConsumer.consume(pageData);
+            if (page.totalCount <= 0 || page.size == 0)
+                break;
+            if (offset + page.size >= page.totalCount)
+                break;
+            offset += page.size;
+        }
+    }
+
+    /*
+     * Once the first page reported total_count, the remaining offsets are known up front.
+     * Keep up to pageConcurrency requests in flight, but always hand pages to the consumer
+     * in offset order so issue numbering stays deterministic. Pages fetched ahead are
+     * buffered as a list of elements, never as a whole response tree.
+     *
+     * Offsets are planned with the page size current at submission time. If the server
+     * returns a shorter page than requested (its own cap), the gap is filled serially
+     * before later pages are handed over.
+     */
+    private void listConcurrently(URI uri, String dataNodeName, Page firstPage, PageSizeTuner tuner,
+            MyPageDataConsumer pageDataConsumer) throws InterruptedException {
+        ExecutorService executor = OneDev.getInstance(ExecutorService.class);
+        int totalCount = firstPage.totalCount;
+        int nextOffset = firstPage.size;
+        Deque<Future<Page>> inFlight = new ArrayDeque<>();
+        try {
+            while (true) {
+                while (inFlight.size() < pageConcurrency && nextOffset < totalCount) {
+                    int offset = nextOffset;
+                    int limit = tuner.getPageSize();
+                    inFlight.add(executor.submit(() -> {
+                        List<JsonNode> data = new ArrayList<>();
+                        Page page = fetchPage(uri, offset, limit, dataNodeName, tuner, data::add);
+                        page.data = data;
+                        return page;
+                    }));
+                    nextOffset += limit;
+                }
 
-                if (totalCount <= 0)
+                Future<Page> future = inFlight.poll();
+                if (future == null)
                     break;
 
-                if (offset + pageData.size() >= totalCount)
+                Page page;
+                try {
+                    page = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+                for (JsonNode element: page.data)
+                    pageDataConsumer.consumeElement(element);
+                pageDataConsumer.setTotal(page.totalCount);
+                pageDataConsumer.pageDone(page.size);
+
+                int gapOffset = page.offset + page.size;
+                int gapEnd = Math.min(page.offset + page.limit, totalCount);
+                while (page.size > 0 && gapOffset < gapEnd) {
+                    page = fetchPage(uri, gapOffset, Math.min(tuner.getPageSize(), gapEnd - gapOffset),
+                            dataNodeName, tuner, pageDataConsumer::consumeElement);
+                    pageDataConsumer.setTotal(page.totalCount);
+                    pageDataConsumer.pageDone(page.size);
+                    gapOffset += page.size;
+                }
+            }
+        } finally {
+            for (Future<Page> future: inFlight)
+                future.cancel(true);
+        }
+    }
+
+    /*
+     * Pages were recorded under their offset only, so the page sizes the tuner picked
+     * while recording do not matter: each recorded page tells where the next one starts.
+     */
+    private void replayPages(URI uri, String dataNodeName, MyPageDataConsumer pageDataConsumer) {
+        int offset = 0;
+        try {
+            while (true) {
+                Page page;
+                try (InputStream is = replay(getSnapshotKey(uri, offset))) {
+                    page = readPage(is, dataNodeName, pageDataConsumer::consumeElement);
+                }
+                pageDataConsumer.setTotal(page.totalCount);
+                pageDataConsumer.pageDone(page.size);
+
+                if (page.totalCount <= 0 || page.size == 0 || offset + page.size >= page.totalCount)
                     break;
-                offset += pageData.size();
-            } catch (URISyntaxException|InterruptedException e) {
-                throw new RuntimeException(e);
+                offset += page.size;
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void listDatabase(URI uri, String dataNodeName, MyPageDataConsumer pageDataConsumer) {
+        try {
+            database.list(uri.toString(), (offset, elements, totalCount) -> {
+                if (snapshot != null) {
+                    ObjectNode pageNode = MAPPER.createObjectNode();
+                    pageNode.putArray(dataNodeName).addAll(elements);
+                    pageNode.put("total_count", totalCount);
+                    record(getSnapshotKey(uri, offset), MAPPER.writeValueAsBytes(pageNode));
+                }
+                for (JsonNode element: elements)
+                    pageDataConsumer.consumeElement(element);
+                pageDataConsumer.setTotal(totalCount);
+                pageDataConsumer.pageDone(elements.size());
+            });
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * List reference data such as statuses, trackers or users. Pages are requested with a
+     * fixed page size and conditionally, reusing the cached body of a previous request if
+     * Redmine reports it as not modified.
+     */
+    List<JsonNode> listReference(String apiEndpoint, String dataNodeName) {
+        if (isReplaying() || database != null)
+            return list(apiEndpoint, dataNodeName);
+
+        ReferenceDataCache cache = OneDev.getInstance(RedmineConnectionManager.class).getReferenceDataCache(server);
+        List<JsonNode> result = new ArrayList<>();
+        URI uri = URI.create(apiEndpoint);
+        int offset = 0;
+        try {
+            while (true) {
+                List<JsonNode> data = new ArrayList<>();
+                Page page = execute(getPageUrl(uri, offset, REFERENCE_PAGE_SIZE), true, cache,
+                        recorded(getSnapshotKey(uri, offset), (is, latency) -> {
+                            data.clear();
+                            return readPage(is, dataNodeName, data::add);
+                        }));
+                result.addAll(data);
+
+                if (page.totalCount <= 0 || page.size == 0 || offset + page.size >= page.totalCount)
+                    break;
+                offset += page.size;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    private Page fetchPage(URI uri, int offset, int limit, String dataNodeName, PageSizeTuner tuner,
+            ElementHandler handler) throws InterruptedException {
+        String url = getPageUrl(uri, offset, limit);
+
+        // a retried page must not hand elements to the consumer a second time
+        AtomicInteger delivered = new AtomicInteger();
+        try {
+            return execute(url, true, null, recorded(getSnapshotKey(uri, offset), (is, latency) -> {
+                AtomicInteger index = new AtomicInteger();
+                Page page = readPage(is, dataNodeName, element -> {
+                    if (index.getAndIncrement() >= delivered.get()) {
+                        handler.handle(element);
+                        delivered.incrementAndGet();
+                    }
+                });
+                page.offset = offset;
+                page.limit = limit;
+                tuner.onSuccess(limit, page.size, offset + page.size < page.totalCount, latency);
+                return page;
+            }));
+        } catch (RuntimeException e) {
+            tuner.onFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Get a single Redmine resource as JSON tree.
+     *
+     * @throws StatusException if Redmine responded with an error status, such as 404 or a
+     *             retryable status persisting after all retries
+     */
+    JsonNode get(String apiEndpoint) {
+        return get(apiEndpoint, null);
+    }
+
+    /**
+     * Get a single Redmine resource as JSON tree, served from the on-disk response cache
+     * if it is enabled and holds an entry stored with the same validator.
+     *
+     * @param validator	value that changes whenever the resource changes, for instance the
+     * 					<tt>updated_on</tt> timestamp of an issue; <tt>null</tt> to bypass the cache
+     */
+    JsonNode get(String apiEndpoint, @Nullable String validator) {
+        String snapshotKey = ResponseDiskCache.normalize(apiEndpoint);
+        ResponseDiskCache diskCache = validator != null
+                ? OneDev.getInstance(RedmineConnectionManager.class).getResponseDiskCache(server)
+                : null;
+        try {
+            if (isReplaying()) {
+                try (InputStream is = replay(snapshotKey)) {
+                    return MAPPER.readTree(is);
+                }
+            } else if (database != null) {
+                JsonNode node = database.get(apiEndpoint);
+                record(snapshotKey, MAPPER.writeValueAsBytes(node));
+                return node;
+            } else if (diskCache != null) {
+                byte[] cached = diskCache.get(apiEndpoint, validator);
+                if (cached != null) {
+                    record(snapshotKey, cached);
+                    return MAPPER.readTree(cached);
+                }
+                return execute(apiEndpoint, true, null, recorded(snapshotKey, (is, latency) -> {
+                    byte[] body = ByteStreams.toByteArray(is);
+                    JsonNode node = MAPPER.readTree(body);
+                    diskCache.put(apiEndpoint, validator, body);
+                    return node;
+                }));
+            } else {
+                return execute(apiEndpoint, true, null, recorded(snapshotKey, (is, latency) -> MAPPER.readTree(is)));
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Download binary content such as attachments. Content is spooled to a temporary file
+     * first, and a download failing midway is resumed from where it stopped, so the handler
+     * only sees complete content.
+     */
+    <T> T download(String url, StreamHandler<T> handler) {
+        try {
+            if (isReplaying()) {
+                try (InputStream is = replay(url)) {
+                    return handler.handle(is);
+                }
+            } else if (database != null) {
+                ResponseHandler<T> recorded = recorded(url, (is, latency) -> handler.handle(is));
+                return database.download(url, is -> {
+                    try {
+                        return recorded.handle(is, 0);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            File spoolFile = File.createTempFile("redmine-download", ".tmp", Bootstrap.getTempDir());
+            try {
+                spool(url, spoolFile);
+                try (InputStream is = new FileInputStream(spoolFile)) {
+                    return recorded(url, (body, latency) -> handler.handle(body)).handle(is, 0);
+                }
+            } finally {
+                spoolFile.delete();
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Requests failing before the body arrives are retried by execute. Failures while
+     * reading the body leave the spooled part in place, and the rest is requested with a
+     * range starting after it, on condition that the content is still the same. If it
+     * changed, or the server does not support ranges, content is spooled from the start.
+     * As the body is read from a stream, transferFrom copies it through a heap buffer.
+     */
+    private void spool(String url, File spoolFile) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(spoolFile.toPath(), StandardOpenOption.WRITE)) {
+            int resumes = 0;
+            String validator = null;
+            while (true) {
+                // without validator, a range could mix content of different versions
+                ContentRange range = validator != null
+                        ? new ContentRange(channel.size(), validator)
+                        : new ContentRange(0, null);
+                try {
+                    execute(url, false, null, range, (is, latency) -> {
+                        long position = range.partial ? range.start : 0;
+                        channel.truncate(position);
+                        ReadableByteChannel source = Channels.newChannel(is);
+                        long transferred;
+                        while ((transferred = channel.transferFrom(source, position, Long.MAX_VALUE)) > 0)
+                            position += transferred;
+                        return null;
+                    });
+                    return;
+                } catch (RuntimeException e) {
+                    validator = range.validator;
+                    if (!(e.getCause() instanceof IOException) || ++resumes > RetryPolicy.MAX_RETRIES)
+                        throw e;
+                    long delay = RetryPolicy.getDelayMillis(resumes, -1);
+                    odLogger.log("Download failed after " + channel.size() + " bytes (" + e.getMessage()
+                            + "), resuming in " + delay + "ms: " + url);
+                    Thread.sleep(delay);
+                }
+            }
+        }
+    }
+
+    /*
+     * Perform a GET request with retries. Connection failures and retryable statuses are
+     * retried with bounded exponential backoff honoring Retry-After, and feed the circuit
+     * breaker of the endpoint family, which pauses all requests of that family while open.
+     * Errors while reading the body are only retried if the handler can be replayed.
+     *
+     * Responses are requested compressed and decompressed as a stream; the handler always
+     * sees the decoded body.
+     *
+     * If a reference data cache is specified, the request carries the validators of the
+     * cached response, and the cached body is handed to the handler on 304 Not Modified.
+     */
+    private <T> T execute(String url, boolean replayable, @Nullable ReferenceDataCache cache,
+            ResponseHandler<T> handler) throws InterruptedException {
+        return execute(url, replayable, cache, null, handler);
+    }
+
+    /*
+     * If a range with positive start is specified, only the content after it is requested,
+     * uncompressed so that the range refers to content bytes. The range tells the handler
+     * whether the response is partial, or holds the whole content as the server ignored
+     * the range or the content changed.
+     */
+    private <T> T execute(String url, boolean replayable, @Nullable ReferenceDataCache cache,
+            @Nullable ContentRange range, ResponseHandler<T> handler) throws InterruptedException {
+        URI uri = URI.create(url);
+        String resource = getResource(uri);
+        CircuitBreaker breaker = circuitBreakers.computeIfAbsent(uri.getAuthority() + "/" + resource,
+                CircuitBreaker::new);
+        int attempt = 0;
+        while (true) {
+            breaker.awaitClosed();
+            attempt++;
+
+            RuntimeException failure;
+            long retryAfter = -1;
+            RedmineConnection connection = OneDev.getInstance(RedmineConnectionManager.class).getConnection(server);
+            Invocation.Builder builder = connection.getClient().target(url).request();
+            if (range != null && range.start > 0) {
+                builder.header(HttpHeaders.ACCEPT_ENCODING, "identity");
+                builder.header("Range", "bytes=" + range.start + "-");
+                builder.header("If-Range", range.ifRange);
+            } else {
+                builder.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+            }
+            ReferenceDataCache.Entry cached = cache != null ? cache.get(url) : null;
+            if (cached != null) {
+                if (cached.etag != null)
+                    builder.header(HttpHeaders.IF_NONE_MATCH, cached.etag);
+                if (cached.lastModified != null)
+                    builder.header(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
+            connection.acquire();
+            long startTime = System.currentTimeMillis();
+            try (Response response = builder.get()) {
+                long latency = System.currentTimeMillis() - startTime;
+                if (cached != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                    transferStats.record(resource, 0, 0);
+                    try {
+                        T result = handle(handler, new ByteArrayInputStream(cached.body), latency);
+                        breaker.onSuccess();
+                        return result;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                } else if (RetryPolicy.isRetryableStatus(response.getStatus())) {
+                    retryAfter = RetryPolicy.parseRetryAfter(response.getHeaderString("Retry-After"));
+                    failure = new StatusException(response.getStatus(), JerseyUtils.checkStatus(url, response));
+                } else {
+                    String errorMessage = JerseyUtils.checkStatus(url, response);
+                    if (errorMessage != null)
+                        throw new StatusException(response.getStatus(), errorMessage);
+                    CountingInputStream wireStream = new CountingInputStream(response.readEntity(InputStream.class));
+                    CountingInputStream decodedStream = null;
+                    try {
+                        decodedStream = new CountingInputStream(
+                                decode(wireStream, response.getHeaderString(HttpHeaders.CONTENT_ENCODING)));
+                        InputStream body = decodedStream;
+                        if (range != null) {
+                            range.partial = range.start > 0
+                                    && response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode();
+                            range.validator = getRangeValidator(response);
+                        }
+                        if (cache != null) {
+                            byte[] bytes = ByteStreams.toByteArray(decodedStream);
+                            cache.put(url, response.getHeaderString(HttpHeaders.ETAG),
+                                    response.getHeaderString(HttpHeaders.LAST_MODIFIED), bytes);
+                            body = new ByteArrayInputStream(bytes);
+                        }
+                        T result = handle(handler, body, latency);
+                        breaker.onSuccess();
+                        return result;
+                    } catch (IOException e) {
+                        if (!replayable)
+                            throw new RuntimeException(e);
+                        failure = new RuntimeException(e);
+                    } finally {
+                        transferStats.record(resource, wireStream.getCount(),
+                                decodedStream != null ? decodedStream.getCount() : 0);
+                        closeQuietly(decodedStream != null ? decodedStream : wireStream);
+                    }
+                }
+            } catch (ProcessingException e) {
+                failure = e;
+            } catch (HandlerException e) {
+                // a request made by the handler failed and was retried on its own already
+                throw e.getCause();
+            } finally {
+                connection.release();
+            }
+
+            if (breaker.onFailure(retryAfter)) {
+                odLogger.log("Redmine seems overloaded, pausing requests to '" + breaker.getFamily()
+                        + "' for " + breaker.getRemainingOpenMillis() / 1000 + "s");
+            }
+            if (attempt > RetryPolicy.MAX_RETRIES) {
+                odLogger.error("Giving up after " + attempt + " attempts: " + url, failure);
+                throw failure;
             }
+            long delay = RetryPolicy.getDelayMillis(attempt, retryAfter);
+            odLogger.log("Request failed (" + failure.getMessage() + "), retrying in " + delay + "ms: " + url);
+            Thread.sleep(delay);
+        }
+    }
+
+    /*
+     * Handlers may issue requests themselves, such as the consumer of a page. Their
+     * connection failures are wrapped so they are not taken for a failure of this request.
+     */
+    private static <T> T handle(ResponseHandler<T> handler, InputStream is, long latencyMillis)
+            throws IOException, InterruptedException {
+        try {
+            return handler.handle(is, latencyMillis);
+        } catch (ProcessingException e) {
+            throw new HandlerException(e);
         }
     }
 
+    private boolean isReplaying() {
+        return snapshot != null && snapshot.isReplay();
+    }
+
+    private InputStream replay(String snapshotKey) throws IOException {
+        InputStream body = snapshot.read(snapshotKey);
+        if (body == null)
+            throw new ExplicitException("Response not recorded in snapshot: " + snapshotKey);
+        return body;
+    }
+
+    private void record(String snapshotKey, byte[] body) throws IOException {
+        if (snapshot != null)
+            snapshot.record(snapshotKey, body);
+    }
+
+    /*
+     * Tee the body seen by the handler into the snapshot being recorded. Only responses the
+     * handler accepted are recorded, so a retried request leaves a single entry.
+     */
+    private <T> ResponseHandler<T> recorded(String snapshotKey, ResponseHandler<T> handler) {
+        if (snapshot == null)
+            return handler;
+        return (is, latency) -> {
+            try (RedmineSnapshot.Recording recording = snapshot.startRecording()) {
+                T result = handler.handle(new TeeInputStream(is, recording), latency);
+                recording.commit(snapshotKey);
+                return result;
+            }
+        };
+    }
+
+    private static String getSnapshotKey(URI uri, int offset) {
+        return ResponseDiskCache.normalize(uri.toString()) + "#offset=" + offset;
+    }
+
+    TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    private static InputStream decode(InputStream is, @Nullable String contentEncoding) throws IOException {
+        if (contentEncoding == null)
+            return is;
+        switch (contentEncoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(is, 8192);
+            case "deflate":
+                return new InflaterInputStream(is);
+            default:
+                return is;
+        }
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            // response is closed anyway
+        }
+    }
+
+    /*
+     * Group endpoints by the first well known Redmine resource in the path, so that for
+     * instance all issue detail requests share one circuit breaker.
+     */
+    private static String getResource(URI uri) {
+        for (String segment: uri.getPath().split("/")) {
+            String resource = StringUtils.substringBefore(segment, ".");
+            if (ENDPOINT_FAMILIES.contains(resource))
+                return resource;
+        }
+        return "other";
+    }
+
+    private static String getPageUrl(URI uri, int offset, int limit) {
+        try {
+            URIBuilder builder = new URIBuilder(uri);
+            if (offset > 0)
+                builder.addParameter("offset", String.valueOf(offset));
+            builder.addParameter("limit", String.valueOf(limit));
+            return builder.build().toString();
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getEndpointKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority() + uri.getPath();
+    }
+
+    /*
+     * Decode a Redmine list response with the streaming parser. Only one element tree
+     * exists at a time; all other top level fields except total_count are skipped.
+     */
+    private static Page readPage(InputStream is, String dataNodeName, ElementHandler handler)
+            throws IOException, InterruptedException {
+        Page page = new Page();
+        try (JsonParser parser = MAPPER.getFactory().createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new ExplicitException("Unexpected response, JSON object expected");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (fieldName.equals(dataNodeName) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        handler.handle(MAPPER.readTree(parser));
+                        page.size++;
+                    }
+                } else if (fieldName.equals("total_count")) {
+                    page.totalCount = parser.getValueAsInt(-1);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return page;
+    }
+
+    private interface ElementHandler {
+
+        void handle(JsonNode element) throws InterruptedException;
+
+    }
+
+    private interface ResponseHandler<T> {
+
+        T handle(InputStream is, long latencyMillis) throws IOException, InterruptedException;
+
+    }
+
+    interface StreamHandler<T> {
+
+        T handle(InputStream is) throws IOException;
+
+    }
+
+    /**
+     * Redmine responded with an error status.
+     */
+    static class StatusException extends ExplicitException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        StatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+    }
+
+    /*
+     * Weak entity tags may not be used for ranges, the modification date is taken then.
+     */
+    @Nullable
+    private static String getRangeValidator(Response response) {
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+    }
+
+    /*
+     * Content requested from specified start on, if it still has the specified validator.
+     * Execute fills in what the response tells about it before calling the handler.
+     */
+    private static class ContentRange {
+
+        final long start;
+
+        final String ifRange;
+
+        boolean partial;
+
+        String validator;
+
+        ContentRange(long start, @Nullable String ifRange) {
+            this.start = start;
+            this.ifRange = ifRange;
+        }
+
+    }
+
+    private static class HandlerException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        HandlerException(ProcessingException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized ProcessingException getCause() {
+            return (ProcessingException) super.getCause();
+        }
+
+    }
+
+    private static class Page {
+
+        List<JsonNode> data;
+
+        int offset;
+
+        int limit;
+
+        int size;
+
+        int totalCount = -1;
+
+    }
+
 }
@@ -0,0 +1,55 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.client.Client;
+
+/**
+ * A pooled JAX-RS client for one Redmine server. Requests acquire a permit of the
+ * per-host limit for as long as they hold a connection.
+ */
+class RedmineConnection {
+
+	private final Client client;
+
+	private final Semaphore hostPermits;
+
+	private final AtomicInteger activeRequests = new AtomicInteger();
+
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	RedmineConnection(Client client, Semaphore hostPermits) {
+		this.client = client;
+		this.hostPermits = hostPermits;
+	}
+
+	Client getClient() {
+		return client;
+	}
+
+	void acquire() throws InterruptedException {
+		hostPermits.acquire();
+		activeRequests.incrementAndGet();
+		lastUsed = System.currentTimeMillis();
+	}
+
+	void release() {
+		lastUsed = System.currentTimeMillis();
+		activeRequests.decrementAndGet();
+		hostPermits.release();
+	}
+
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	boolean isIdleSince(long timestamp) {
+		return activeRequests.get() == 0 && lastUsed < timestamp;
+	}
+
+	void close() {
+		client.close();
+	}
+
+}
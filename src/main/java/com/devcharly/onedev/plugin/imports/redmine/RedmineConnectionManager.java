@@ -0,0 +1,51 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import javax.annotation.Nullable;
+
+/**
+ * Plugin scoped holder of HTTP connections to Redmine servers, so that wizard steps and
+ * import phases reuse the same client and its keep-alive connections instead of building
+ * a new one for every request sequence.
+ */
+public interface RedmineConnectionManager {
+
+	/**
+	 * Get the shared connection for specified server, identified by API URL and access token.
+	 * The returned connection must not be closed by callers.
+	 */
+	RedmineConnection getConnection(ImportServer server);
+
+	/**
+	 * Get the cache of conditionally requested reference data for specified server. It
+	 * outlives idle connections, so wizard reloads and repeated imports can revalidate.
+	 */
+	ReferenceDataCache getReferenceDataCache(ImportServer server);
+
+	/**
+	 * Get the on-disk response cache for specified server, or <tt>null</tt> if the server
+	 * setting does not enable it.
+	 */
+	@Nullable
+	ResponseDiskCache getResponseDiskCache(ImportServer server);
+
+	/**
+	 * Get the persisted identity map of Redmine users for specified server, or <tt>null</tt>
+	 * if the server setting does not remember users.
+	 */
+	@Nullable
+	RedmineIdentityMap getIdentityMap(ImportServer server);
+
+	/**
+	 * Get the index of imported attachments by content digest. It is shared by all
+	 * servers, as equal digests and sizes stand for equal content.
+	 */
+	AttachmentDigestIndex getAttachmentDigestIndex();
+
+	/**
+	 * Get the shared database reader for specified server, or <tt>null</tt> if the server
+	 * setting reads the REST API.
+	 */
+	@Nullable
+	RedmineDatabase getDatabase(ImportServer server);
+
+}
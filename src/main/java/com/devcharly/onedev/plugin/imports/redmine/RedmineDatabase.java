@@ -0,0 +1,728 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.onedev.commons.utils.ExplicitException;
+
+/**
+ * Reads a Redmine database directly and answers the REST endpoints used by the importer
+ * with responses of the same shape, so the mapping logic does not care where data comes
+ * from.
+ * <p>
+ * Issues are read page by page with keyset pagination. Custom values, journals, journal
+ * details, relations, watchers and attachments of a page are loaded with one query each,
+ * and the detail request of every issue on the page is then answered from memory.
+ * Attachments are read from the Redmine files directory.
+ * <p>
+ * As the connection is opened with settings of the import form, only JDBC URLs of the
+ * database servers supported by Redmine are accepted, without driver options able to load
+ * classes, run statements or access local files.
+ * <p>
+ * The connection is shared by all imports from one server, while issues loaded ahead of
+ * their detail request belong to the {@link Reader} of a single import. Journals with
+ * private notes are left out, as Redmine does for users not allowed to view them.
+ */
+class RedmineDatabase {
+
+	static final int PAGE_SIZE = 200;
+
+	// included by the issue detail request only
+	private static final List<String> DETAIL_FIELDS = Arrays.asList("relations", "watchers", "attachments", "journals");
+
+	private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+	private static final DateTimeFormatter DATE_TIME_FORMATTER = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC();
+
+	private static final DateTimeFormatter DATE_FORMATTER = ISODateTimeFormat.date().withZoneUTC();
+
+	private static final Pattern VERSIONS = Pattern.compile("/projects/([^/]+)/versions\\.json");
+
+	private static final Pattern CATEGORIES = Pattern.compile("/projects/([^/]+)/issue_categories\\.json");
+
+	private static final Pattern WIKI_PAGE = Pattern.compile("/projects/([^/]+)/wiki/([^/]+)\\.json");
+
+	private static final Pattern USER = Pattern.compile("/users/(\\d+)\\.json");
+
+	private static final Pattern ISSUE = Pattern.compile("/issues/(\\d+)\\.json");
+
+	private static final Pattern ATTACHMENT = Pattern.compile("/attachments/download/(\\d+)(/.*)?");
+
+	private static final List<String> DATABASE_URL_PREFIXES = Arrays.asList(
+			"jdbc:postgresql:", "jdbc:mysql:", "jdbc:mariadb:", "jdbc:sqlserver:");
+
+	// lower case, drivers accept options in the query, in host specs and after semicolons
+	private static final Set<String> UNSAFE_DATABASE_OPTIONS = new HashSet<>(Arrays.asList(
+			// PostgreSQL
+			"socketfactory", "socketfactoryarg", "sslfactory", "sslfactoryarg", "sslhostnameverifier",
+			"sslpasswordcallback", "sslkey", "sslcert", "sslrootcert", "authenticationpluginclassname",
+			"loggerfile", "loggerlevel", "jaasapplicationname", "jaaslogin", "service",
+			// MySQL and MariaDB
+			"allowloadlocalinfile", "allowlocalinfile", "allowurlinlocalinfile", "allowloadlocalinfileinpath",
+			"autodeserialize", "queryinterceptors", "statementinterceptors", "exceptioninterceptors",
+			"connectionlifecycleinterceptors", "authenticationplugins", "defaultauthenticationplugin",
+			"propertiestransform", "clientcertificatekeystoreurl", "trustcertificatekeystoreurl",
+			"serverrsapublickeyfile", "logger", "profilereventhandler", "loadbalanceexceptionchecker",
+			"loadbalancestrategy", "ha.loadbalancestrategy", "initsql", "sessionvariables", "localsocket",
+			"keystore", "truststore", "credentialtype", "servercertificate", "serversslcert",
+			// SQL Server
+			"socketfactoryclass", "socketfactoryconstructorarg", "trustmanagerclass",
+			"trustmanagerconstructorarg", "truststorepassword", "keystorelocation", "keystoreprincipalid",
+			"keystoresecret", "accesstokencallbackclass", "keyvaultproviderclientid"));
+
+	private static final Pattern DATABASE_OPTION = Pattern.compile("([\\w.-]+)\\s*=");
+
+	private final ImportServer server;
+
+	private Connection connection;
+
+	private Map<Long, String> userNames;
+
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	RedmineDatabase(ImportServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * Create a reader for one import. Readers share the connection of this database.
+	 */
+	Reader newReader() {
+		return new Reader();
+	}
+
+	private void list(String url, Map<Long, ObjectNode> prefetchedIssues, PageHandler handler)
+			throws IOException, InterruptedException {
+		lastUsed = System.currentTimeMillis();
+		String path = getPath(url);
+		Map<String, String> params = getParams(url);
+		Matcher matcher;
+		if (path.equals("/issues.json")) {
+			listIssues(params.get("project_id"), params.get("issue_id"), prefetchedIssues, handler);
+		} else if (path.equals("/issue_statuses.json")) {
+			handler.handle(0, query("SELECT id, name, is_closed FROM issue_statuses ORDER BY position", rs -> {
+				ObjectNode node = NODES.objectNode();
+				node.put("id", rs.getLong(1));
+				node.put("name", rs.getString(2));
+				node.put("is_closed", rs.getBoolean(3));
+				return node;
+			}));
+		} else if (path.equals("/trackers.json")) {
+			handler.handle(0, query("SELECT id, name FROM trackers ORDER BY position", this::toNamedNode));
+		} else if (path.equals("/enumerations/issue_priorities.json")) {
+			handler.handle(0, query("SELECT id, name FROM enumerations WHERE type = 'IssuePriority' "
+					+ "ORDER BY position", this::toNamedNode));
+		} else if (path.equals("/custom_fields.json")) {
+			handler.handle(0, query("SELECT id, name, type, multiple FROM custom_fields ORDER BY position", rs -> {
+				ObjectNode node = toNamedNode(rs);
+				// IssueCustomField -> issue, TimeEntryCustomField -> time_entry
+				String type = StringUtils.removeEnd(rs.getString(3), "CustomField");
+				node.put("customized_type", type.replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase());
+				node.put("multiple", rs.getBoolean(4));
+				return node;
+			}));
+		} else if (path.equals("/users.json")) {
+			handler.handle(0, query("SELECT id, login, firstname, lastname, "
+					+ "(SELECT MIN(address) FROM email_addresses WHERE user_id = users.id AND is_default = ?) "
+					+ "FROM users WHERE type = 'User' AND status = 1 ORDER BY id", this::toUserNode, true));
+		} else if (path.equals("/projects.json")) {
+			handler.handle(0, query("SELECT id, name, identifier FROM projects ORDER BY id", rs -> {
+				ObjectNode node = toNamedNode(rs);
+				node.put("identifier", rs.getString(3));
+				return node;
+			}));
+		} else if ((matcher = VERSIONS.matcher(path)).matches()) {
+			handler.handle(0, query("SELECT id, name, description, effective_date, status FROM versions "
+					+ "WHERE project_id = ? ORDER BY id", rs -> {
+				ObjectNode node = toNamedNode(rs);
+				node.put("description", rs.getString(3));
+				putDate(node, "due_date", rs.getTimestamp(4, utc()));
+				node.put("status", rs.getString(5));
+				return node;
+			}, getProjectId(matcher.group(1))));
+		} else if ((matcher = CATEGORIES.matcher(path)).matches()) {
+			handler.handle(0, query("SELECT id, name FROM issue_categories WHERE project_id = ? ORDER BY id",
+					this::toNamedNode, getProjectId(matcher.group(1))));
+		} else {
+			throw new ExplicitException("Endpoint not supported when reading Redmine database: " + path);
+		}
+	}
+
+	private JsonNode get(String url, Map<Long, ObjectNode> prefetchedIssues) {
+		lastUsed = System.currentTimeMillis();
+		String path = getPath(url);
+		Matcher matcher;
+		ObjectNode result = NODES.objectNode();
+		if ((matcher = ISSUE.matcher(path)).matches()) {
+			Long issueId = Long.valueOf(matcher.group(1));
+			ObjectNode issueNode = prefetchedIssues.remove(issueId);
+			if (issueNode == null) {
+				List<ObjectNode> issueNodes = queryIssues("i.id = ?", Collections.singletonList(issueId), 1);
+				if (issueNodes.isEmpty())
+					throw new ExplicitException("Issue not found: " + issueId);
+				loadDetails(issueNodes);
+				issueNode = issueNodes.get(0);
+			}
+			result.set("issue", issueNode);
+		} else if ((matcher = USER.matcher(path)).matches()) {
+			List<ObjectNode> userNodes = query("SELECT id, login, firstname, lastname, "
+					+ "(SELECT MIN(address) FROM email_addresses WHERE user_id = users.id AND is_default = ?) "
+					+ "FROM users WHERE id = ? AND type = 'User'", this::toUserNode, true, Long.valueOf(matcher.group(1)));
+			if (userNodes.isEmpty())
+				throw new ExplicitException("User not found: " + matcher.group(1));
+			result.set("user", userNodes.get(0));
+		} else if ((matcher = WIKI_PAGE.matcher(path)).matches()) {
+			List<ObjectNode> pageNodes = query("SELECT p.id, p.title, c.text FROM wiki_pages p "
+					+ "JOIN wikis w ON w.id = p.wiki_id JOIN wiki_contents c ON c.page_id = p.id "
+					+ "WHERE w.project_id = ? AND p.title = ?", rs -> {
+				ObjectNode node = NODES.objectNode();
+				node.put("title", rs.getString(2));
+				node.put("text", rs.getString(3));
+				return node;
+			}, getProjectId(matcher.group(1)), matcher.group(2));
+			if (pageNodes.isEmpty())
+				throw new ExplicitException("Wiki page not found: " + matcher.group(2));
+			result.set("wiki_page", pageNodes.get(0));
+		} else {
+			throw new ExplicitException("Endpoint not supported when reading Redmine database: " + path);
+		}
+		return result;
+	}
+
+	private <T> T download(String url, RedmineClient.StreamHandler<T> handler) throws IOException {
+		lastUsed = System.currentTimeMillis();
+		Matcher matcher = ATTACHMENT.matcher(getPath(url));
+		if (!matcher.matches())
+			throw new ExplicitException("Endpoint not supported when reading Redmine database: " + url);
+		List<String> diskPaths = query("SELECT disk_directory, disk_filename, id FROM attachments WHERE id = ?", rs -> {
+			String directory = rs.getString(1);
+			String filename = rs.getString(2);
+			if (filename == null || !isRelativePath(filename) || filename.contains("/") || filename.contains("\\")
+					|| StringUtils.isNotEmpty(directory) && !isRelativePath(directory)) {
+				throw new ExplicitException("Invalid disk path of attachment " + rs.getLong(3));
+			}
+			return StringUtils.isNotEmpty(directory) ? directory + "/" + filename : filename;
+		}, Long.valueOf(matcher.group(1)));
+		if (diskPaths.isEmpty())
+			throw new ExplicitException("Attachment not found: " + matcher.group(1));
+		File filesDir = new File(server.getFilesDirectory()).getCanonicalFile();
+		File file = new File(filesDir, diskPaths.get(0)).getCanonicalFile();
+		if (!file.toPath().startsWith(filesDir.toPath()))
+			throw new ExplicitException("Attachment file outside of Redmine files directory: " + file);
+		if (!file.exists())
+			throw new ExplicitException("Attachment file not found: " + file);
+		try (InputStream is = new FileInputStream(file)) {
+			return handler.handle(is);
+		}
+	}
+
+	/*
+	 * Redmine stores attachments as <tt>yyyy/mm/filename</tt> below its files directory.
+	 */
+	private static boolean isRelativePath(String path) {
+		if (path.isEmpty() || path.startsWith("/") || path.startsWith("\\") || path.contains(":"))
+			return false;
+		for (String segment: path.split("[/\\\\]")) {
+			if (segment.isEmpty() || segment.equals(".") || segment.equals(".."))
+				return false;
+		}
+		return true;
+	}
+
+	private void listIssues(@Nullable String projectId, @Nullable String issueIds,
+			Map<Long, ObjectNode> prefetchedIssues, PageHandler handler) throws IOException, InterruptedException {
+		if (projectId == null)
+			throw new ExplicitException("Listing issues requires a project");
+
+		String condition = "i.project_id = ?";
+		List<Object> params = new ArrayList<>();
+		params.add(getProjectId(projectId));
+		if (StringUtils.isNotBlank(issueIds)) {
+			List<String> ids = new ArrayList<>();
+			for (String id: StringUtils.split(issueIds, ',')) {
+				params.add(Long.valueOf(id.trim()));
+				ids.add("?");
+			}
+			condition += " AND i.id IN (" + StringUtils.join(ids, ", ") + ")";
+		}
+
+		int totalCount = query("SELECT COUNT(*) FROM issues i WHERE " + condition, rs -> rs.getInt(1),
+				params.toArray()).get(0);
+
+		// the importer may list ahead, entries are removed once the detail request is answered
+		prefetchedIssues.clear();
+		long lastId = 0;
+		int offset = 0;
+		while (true) {
+			List<Object> pageParams = new ArrayList<>(params);
+			pageParams.add(lastId);
+			List<ObjectNode> issueNodes = queryIssues(condition + " AND i.id > ?", pageParams, PAGE_SIZE);
+			if (issueNodes.isEmpty())
+				break;
+
+			prefetchedIssues.putAll(loadDetails(issueNodes));
+
+			// listing responses do not contain the detail arrays, hand over copies without them
+			List<JsonNode> elements = new ArrayList<>();
+			for (ObjectNode issueNode: issueNodes) {
+				ObjectNode element = issueNode.deepCopy();
+				element.remove(DETAIL_FIELDS);
+				elements.add(element);
+			}
+			handler.handle(offset, elements, totalCount);
+
+			offset += issueNodes.size();
+			lastId = issueNodes.get(issueNodes.size() - 1).get("id").asLong();
+			if (issueNodes.size() < PAGE_SIZE)
+				break;
+		}
+	}
+
+	private List<ObjectNode> queryIssues(String condition, List<Object> params, int maxRows) {
+		Map<Long, String> names = getUserNames();
+		return query("SELECT i.id, i.subject, i.description, i.parent_id, i.project_id, "
+				+ "i.status_id, s.name, i.tracker_id, t.name, i.priority_id, p.name, "
+				+ "i.fixed_version_id, v.name, i.category_id, c.name, i.author_id, i.assigned_to_id, "
+				+ "i.start_date, i.due_date, i.done_ratio, i.estimated_hours, i.created_on, i.updated_on "
+				+ "FROM issues i "
+				+ "LEFT JOIN issue_statuses s ON s.id = i.status_id "
+				+ "LEFT JOIN trackers t ON t.id = i.tracker_id "
+				+ "LEFT JOIN enumerations p ON p.id = i.priority_id "
+				+ "LEFT JOIN versions v ON v.id = i.fixed_version_id "
+				+ "LEFT JOIN issue_categories c ON c.id = i.category_id "
+				+ "WHERE " + condition + " ORDER BY i.id", maxRows, rs -> {
+			ObjectNode node = NODES.objectNode();
+			node.put("id", rs.getLong(1));
+			node.put("subject", rs.getString(2));
+			node.put("description", rs.getString(3));
+			long parentId = rs.getLong(4);
+			if (!rs.wasNull())
+				node.putObject("parent").put("id", parentId);
+			node.putObject("project").put("id", rs.getLong(5));
+			putReference(node, "status", rs, 6, 7);
+			putReference(node, "tracker", rs, 8, 9);
+			putReference(node, "priority", rs, 10, 11);
+			putReference(node, "fixed_version", rs, 12, 13);
+			putReference(node, "category", rs, 14, 15);
+			putUser(node, "author", rs.getLong(16), names);
+			long assigneeId = rs.getLong(17);
+			if (!rs.wasNull())
+				putUser(node, "assigned_to", assigneeId, names);
+			putDate(node, "start_date", rs.getTimestamp(18, utc()));
+			putDate(node, "due_date", rs.getTimestamp(19, utc()));
+			node.put("done_ratio", rs.getInt(20));
+			double estimatedHours = rs.getDouble(21);
+			if (!rs.wasNull())
+				node.put("estimated_hours", estimatedHours);
+			putDateTime(node, "created_on", rs.getTimestamp(22, utc()));
+			putDateTime(node, "updated_on", rs.getTimestamp(23, utc()));
+			return node;
+		}, params.toArray());
+	}
+
+	/*
+	 * Load everything the REST detail request includes for specified issues with one query
+	 * per kind. Custom fields are added to the issue nodes themselves, as the listing
+	 * response carries them too.
+	 *
+	 * @return specified issue nodes completed with their details, keyed by issue id
+	 */
+	private Map<Long, ObjectNode> loadDetails(List<ObjectNode> issueNodes) {
+		Map<Long, String> names = getUserNames();
+		Map<Long, ObjectNode> issues = new LinkedHashMap<>();
+		List<Object> ids = new ArrayList<>();
+		for (ObjectNode issueNode: issueNodes) {
+			long id = issueNode.get("id").asLong();
+			issues.put(id, issueNode);
+			ids.add(id);
+			issueNode.putArray("custom_fields");
+			for (String field: DETAIL_FIELDS)
+				issueNode.putArray(field);
+		}
+		String in = "(" + StringUtils.repeat("?", ", ", ids.size()) + ")";
+
+		Map<String, ObjectNode> customFields = new HashMap<>();
+		query("SELECT v.customized_id, f.id, f.name, f.multiple, v.value FROM custom_values v "
+				+ "JOIN custom_fields f ON f.id = v.custom_field_id "
+				+ "WHERE v.customized_type = 'Issue' AND v.customized_id IN " + in
+				+ " ORDER BY v.customized_id, f.position, v.id", rs -> {
+			long issueId = rs.getLong(1);
+			long fieldId = rs.getLong(2);
+			ObjectNode fieldNode = customFields.computeIfAbsent(issueId + ":" + fieldId,
+					k -> ((ArrayNode) issues.get(issueId).get("custom_fields")).addObject());
+			if (!fieldNode.has("id")) {
+				fieldNode.put("id", fieldId);
+				fieldNode.put("name", rs.getString(3));
+				if (rs.getBoolean(4)) {
+					fieldNode.put("multiple", true);
+					fieldNode.putArray("value");
+				}
+			}
+			JsonNode valueNode = fieldNode.get("value");
+			if (valueNode instanceof ArrayNode)
+				((ArrayNode) valueNode).add(rs.getString(5));
+			else
+				fieldNode.put("value", rs.getString(5));
+			return null;
+		}, ids.toArray());
+
+		Map<Long, ObjectNode> journals = new HashMap<>();
+		query("SELECT id, journalized_id, user_id, notes, created_on FROM journals "
+				+ "WHERE journalized_type = 'Issue' AND journalized_id IN " + in + " AND private_notes = ? "
+				+ "ORDER BY id", rs -> {
+			ObjectNode node = ((ArrayNode) issues.get(rs.getLong(2)).get("journals")).addObject();
+			node.put("id", rs.getLong(1));
+			putUser(node, "user", rs.getLong(3), names);
+			node.put("notes", rs.getString(4));
+			putDateTime(node, "created_on", rs.getTimestamp(5, utc()));
+			node.put("private_notes", false);
+			node.putArray("details");
+			journals.put(rs.getLong(1), node);
+			return null;
+		}, withPrivateNotes(ids));
+
+		if (!journals.isEmpty()) {
+			query("SELECT d.journal_id, d.property, d.prop_key, d.old_value, d.value FROM journal_details d "
+					+ "JOIN journals j ON j.id = d.journal_id "
+					+ "WHERE j.journalized_type = 'Issue' AND j.journalized_id IN " + in + " AND j.private_notes = ? "
+					+ "ORDER BY d.id", rs -> {
+				ObjectNode node = ((ArrayNode) journals.get(rs.getLong(1)).get("details")).addObject();
+				node.put("property", rs.getString(2));
+				node.put("name", rs.getString(3));
+				node.put("old_value", rs.getString(4));
+				node.put("new_value", rs.getString(5));
+				return null;
+			}, withPrivateNotes(ids));
+		}
+
+		List<Object> relationParams = new ArrayList<>(ids);
+		relationParams.addAll(ids);
+		query("SELECT id, issue_from_id, issue_to_id, relation_type, delay FROM issue_relations "
+				+ "WHERE issue_from_id IN " + in + " OR issue_to_id IN " + in + " ORDER BY id", rs -> {
+			ObjectNode node = NODES.objectNode();
+			node.put("id", rs.getLong(1));
+			node.put("issue_id", rs.getLong(2));
+			node.put("issue_to_id", rs.getLong(3));
+			node.put("relation_type", rs.getString(4));
+			int delay = rs.getInt(5);
+			if (!rs.wasNull())
+				node.put("delay", delay);
+			else
+				node.putNull("delay");
+			for (long issueId: new long[] {rs.getLong(2), rs.getLong(3)}) {
+				ObjectNode issueNode = issues.get(issueId);
+				if (issueNode != null)
+					((ArrayNode) issueNode.get("relations")).add(node);
+			}
+			return null;
+		}, relationParams.toArray());
+
+		query("SELECT watchable_id, user_id FROM watchers "
+				+ "WHERE watchable_type = 'Issue' AND watchable_id IN " + in + " ORDER BY id", rs -> {
+			ObjectNode node = ((ArrayNode) issues.get(rs.getLong(1)).get("watchers")).addObject();
+			long userId = rs.getLong(2);
+			node.put("id", userId);
+			node.put("name", names.getOrDefault(userId, String.valueOf(userId)));
+			return null;
+		}, ids.toArray());
+
+		query("SELECT id, container_id, filename, filesize, content_type, description, author_id, created_on, digest "
+				+ "FROM attachments WHERE container_type = 'Issue' AND container_id IN " + in + " ORDER BY id", rs -> {
+			ObjectNode node = ((ArrayNode) issues.get(rs.getLong(2)).get("attachments")).addObject();
+			long attachmentId = rs.getLong(1);
+			node.put("id", attachmentId);
+			node.put("filename", rs.getString(3));
+			node.put("filesize", rs.getLong(4));
+			node.put("content_type", rs.getString(5));
+			node.put("description", rs.getString(6));
+			node.put("content_url", server.getApiEndpoint("/attachments/download/" + attachmentId + "/"
+					+ rs.getString(3)));
+			putUser(node, "author", rs.getLong(7), names);
+			putDateTime(node, "created_on", rs.getTimestamp(8, utc()));
+			node.put("digest", rs.getString(9));
+			return null;
+		}, ids.toArray());
+
+		return issues;
+	}
+
+	private static Object[] withPrivateNotes(List<Object> ids) {
+		List<Object> params = new ArrayList<>(ids);
+		params.add(false);
+		return params.toArray();
+	}
+
+	/*
+	 * User names are needed for nearly every row, so they are loaded once. Groups can be
+	 * assignees as well and are named by their last name.
+	 */
+	private synchronized Map<Long, String> getUserNames() {
+		if (userNames == null) {
+			Map<Long, String> names = new HashMap<>();
+			query("SELECT id, firstname, lastname, type FROM users", rs -> {
+				String firstName = StringUtils.defaultString(rs.getString(2));
+				String lastName = StringUtils.defaultString(rs.getString(3));
+				names.put(rs.getLong(1), "User".equals(rs.getString(4))
+						? (firstName + " " + lastName).trim()
+						: lastName);
+				return null;
+			});
+			userNames = names;
+		}
+		return userNames;
+	}
+
+	private long getProjectId(String idOrIdentifier) {
+		if (StringUtils.isNumeric(idOrIdentifier))
+			return Long.parseLong(idOrIdentifier);
+		List<Long> ids = query("SELECT id FROM projects WHERE identifier = ?", rs -> rs.getLong(1), idOrIdentifier);
+		if (ids.isEmpty())
+			throw new ExplicitException("Project not found: " + idOrIdentifier);
+		return ids.get(0);
+	}
+
+	private ObjectNode toNamedNode(ResultSet rs) throws SQLException {
+		ObjectNode node = NODES.objectNode();
+		node.put("id", rs.getLong(1));
+		node.put("name", rs.getString(2));
+		return node;
+	}
+
+	private ObjectNode toUserNode(ResultSet rs) throws SQLException {
+		ObjectNode node = NODES.objectNode();
+		node.put("id", rs.getLong(1));
+		node.put("login", rs.getString(2));
+		node.put("firstname", rs.getString(3));
+		node.put("lastname", rs.getString(4));
+		node.put("mail", rs.getString(5));
+		return node;
+	}
+
+	private static void putReference(ObjectNode node, String fieldName, ResultSet rs, int idColumn, int nameColumn)
+			throws SQLException {
+		long id = rs.getLong(idColumn);
+		if (!rs.wasNull()) {
+			ObjectNode reference = node.putObject(fieldName);
+			reference.put("id", id);
+			reference.put("name", rs.getString(nameColumn));
+		}
+	}
+
+	private static void putUser(ObjectNode node, String fieldName, long userId, Map<Long, String> names) {
+		ObjectNode user = node.putObject(fieldName);
+		user.put("id", userId);
+		user.put("name", names.getOrDefault(userId, String.valueOf(userId)));
+	}
+
+	private static void putDate(ObjectNode node, String fieldName, @Nullable Timestamp timestamp) {
+		if (timestamp != null)
+			node.put(fieldName, DATE_FORMATTER.print(timestamp.getTime()));
+	}
+
+	private static void putDateTime(ObjectNode node, String fieldName, @Nullable Timestamp timestamp) {
+		if (timestamp != null)
+			node.put(fieldName, DATE_TIME_FORMATTER.print(timestamp.getTime()));
+	}
+
+	// Redmine stores timestamps in UTC
+	private static Calendar utc() {
+		return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+	}
+
+	private String getPath(String url) {
+		String path = URI.create(url).getPath();
+		String basePath = URI.create(server.getApiEndpoint("/")).getPath();
+		if (path.startsWith(basePath))
+			path = "/" + path.substring(basePath.length());
+		return path;
+	}
+
+	private static Map<String, String> getParams(String url) {
+		Map<String, String> params = new HashMap<>();
+		for (NameValuePair pair: URLEncodedUtils.parse(URI.create(url), "UTF-8"))
+			params.put(pair.getName(), pair.getValue());
+		return params;
+	}
+
+	private <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) {
+		return query(sql, 0, mapper, params);
+	}
+
+	/*
+	 * Statements run one at a time on the shared connection. Rows are streamed with a
+	 * fetch size and mapped while the result set is open.
+	 */
+	private synchronized <T> List<T> query(String sql, int maxRows, RowMapper<T> mapper, Object... params) {
+		try {
+			try (PreparedStatement statement = getConnection().prepareStatement(sql)) {
+				statement.setFetchSize(PAGE_SIZE);
+				if (maxRows > 0)
+					statement.setMaxRows(maxRows);
+				for (int i = 0; i < params.length; i++)
+					statement.setObject(i + 1, params[i]);
+				List<T> result = new ArrayList<>();
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						T row = mapper.map(rs);
+						if (row != null)
+							result.add(row);
+					}
+				}
+				return result;
+			}
+		} catch (SQLException e) {
+			closeConnection();
+			throw new RuntimeException("Error querying Redmine database: " + sql, e);
+		}
+	}
+
+	private Connection getConnection() throws SQLException {
+		if (connection == null || connection.isClosed()) {
+			connection = openConnection();
+			connection.setReadOnly(true);
+		}
+		return connection;
+	}
+
+	Connection openConnection() throws SQLException {
+		checkUrl(server.getDatabaseUrl());
+		return DriverManager.getConnection(server.getDatabaseUrl(), server.getDatabaseUser(),
+				server.getDatabasePassword());
+	}
+
+	/**
+	 * @throws ExplicitException if specified JDBC URL is not one of a supported database
+	 * 			server, or sets driver options not allowed
+	 */
+	static void checkUrl(String url) {
+		String normalizedUrl = url.trim().toLowerCase(Locale.ROOT);
+		if (DATABASE_URL_PREFIXES.stream().noneMatch(normalizedUrl::startsWith))
+			throw new ExplicitException("Only PostgreSQL, MySQL, MariaDB and SQL Server JDBC URLs are supported");
+		try {
+			// drivers decode options once
+			normalizedUrl = URLDecoder.decode(normalizedUrl.replace("+", "%2b"), "UTF-8");
+		} catch (IllegalArgumentException | UnsupportedEncodingException e) {
+			throw new ExplicitException("Malformed JDBC URL");
+		}
+		Matcher matcher = DATABASE_OPTION.matcher(normalizedUrl);
+		while (matcher.find()) {
+			if (UNSAFE_DATABASE_OPTIONS.contains(matcher.group(1)))
+				throw new ExplicitException("JDBC URL option not allowed: " + matcher.group(1));
+		}
+	}
+
+	/**
+	 * Check that the database can be connected and holds a Redmine schema.
+	 */
+	void check() {
+		query("SELECT id FROM issue_statuses", 1, rs -> null);
+	}
+
+	boolean isIdleSince(long timestamp) {
+		return lastUsed < timestamp;
+	}
+
+	synchronized void closeConnection() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// connection is discarded anyway
+			}
+			connection = null;
+		}
+	}
+
+	/**
+	 * Answers REST requests of one import. Issues listed ahead are kept until their detail
+	 * request is answered, so concurrent imports from the same server do not interfere.
+	 */
+	class Reader {
+
+		private final Map<Long, ObjectNode> prefetchedIssues = new ConcurrentHashMap<>();
+
+		private Reader() {
+		}
+
+		/**
+		 * List elements of specified REST list endpoint.
+		 */
+		void list(String url, PageHandler handler) throws IOException, InterruptedException {
+			RedmineDatabase.this.list(url, prefetchedIssues, handler);
+		}
+
+		/**
+		 * Get the single resource of specified REST endpoint, wrapped the way Redmine wraps it.
+		 *
+		 * @throws ExplicitException if the resource does not exist, like Redmine responding 404
+		 */
+		JsonNode get(String url) {
+			return RedmineDatabase.this.get(url, prefetchedIssues);
+		}
+
+		/**
+		 * Open the stored file of an attachment download URL.
+		 */
+		<T> T download(String url, RedmineClient.StreamHandler<T> handler) throws IOException {
+			return RedmineDatabase.this.download(url, handler);
+		}
+
+	}
+
+	interface PageHandler {
+
+		void handle(int offset, List<? extends JsonNode> elements, int totalCount) throws IOException, InterruptedException;
+
+		default void handle(int offset, List<? extends JsonNode> elements) throws IOException, InterruptedException {
+			handle(offset, elements, elements.size());
+		}
+
+	}
+
+	private interface RowMapper<T> {
+
+		@Nullable
+		T map(ResultSet rs) throws SQLException;
+
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Identities of Redmine users of one server, kept in the OneDev site directory so that
+ * imports of further projects from the same server need not resolve the same users again.
+ * <p>
+ * An entry holds the Redmine profile of a user (or the fact that Redmine does not know
+ * the user) and the OneDev account chosen for it. Entries expire after the configured
+ * time to live, so that changed email addresses and accounts are picked up eventually.
+ */
+class RedmineIdentityMap {
+
+	private static final Logger logger = LoggerFactory.getLogger(RedmineIdentityMap.class);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final File file;
+
+	private final long ttlMillis;
+
+	private Map<String, Entry> entries;
+
+	private boolean dirty;
+
+	RedmineIdentityMap(File file, long ttlMillis) {
+		this.file = file;
+		this.ttlMillis = ttlMillis;
+	}
+
+	long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @return <tt>null</tt> if specified user is unknown or its entry expired, an empty
+	 * 			optional if Redmine does not know the user, and the profile otherwise
+	 */
+	@Nullable
+	synchronized Optional<JsonNode> getProfile(String redmineUserId) {
+		Entry entry = getEntry(redmineUserId);
+		return entry != null ? Optional.ofNullable(entry.profile) : null;
+	}
+
+	synchronized void putProfile(String redmineUserId, Optional<JsonNode> profile) {
+		Entry entry = getEntry(redmineUserId);
+		if (entry == null || !Objects.equals(profile.orElse(null), entry.profile)) {
+			entries.put(redmineUserId, new Entry(profile.orElse(null), null, System.currentTimeMillis()));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return id of the OneDev account chosen for specified user, or <tt>null</tt> if none
+	 * 			was recorded or the entry expired
+	 */
+	@Nullable
+	synchronized Long getOneDevUserId(String redmineUserId) {
+		Entry entry = getEntry(redmineUserId);
+		return entry != null ? entry.oneDevUserId : null;
+	}
+
+	synchronized void putOneDevUserId(String redmineUserId, @Nullable Long oneDevUserId) {
+		Entry entry = getEntry(redmineUserId);
+		if (entry != null && !Objects.equals(entry.oneDevUserId, oneDevUserId)) {
+			entries.put(redmineUserId, new Entry(entry.profile, oneDevUserId, entry.timestamp));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Write changed entries back to disk, dropping expired ones.
+	 */
+	synchronized void save() {
+		if (!dirty)
+			return;
+		ObjectNode root = JsonNodeFactory.instance.objectNode();
+		for (Map.Entry<String, Entry> entry: entries.entrySet()) {
+			if (isExpired(entry.getValue()))
+				continue;
+			ObjectNode node = root.putObject(entry.getKey());
+			node.put("timestamp", entry.getValue().timestamp);
+			if (entry.getValue().profile != null)
+				node.set("profile", entry.getValue().profile);
+			if (entry.getValue().oneDevUserId != null)
+				node.put("oneDevUserId", entry.getValue().oneDevUserId);
+		}
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			MAPPER.writeValue(tempFile, root);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		} catch (IOException e) {
+			logger.warn("Error saving Redmine identity map: " + file, e);
+			tempFile.delete();
+		}
+	}
+
+	@Nullable
+	private Entry getEntry(String redmineUserId) {
+		if (entries == null)
+			entries = load();
+		Entry entry = entries.get(redmineUserId);
+		return entry != null && !isExpired(entry) ? entry : null;
+	}
+
+	private boolean isExpired(Entry entry) {
+		return entry.timestamp + ttlMillis < System.currentTimeMillis();
+	}
+
+	private Map<String, Entry> load() {
+		Map<String, Entry> entries = new HashMap<>();
+		if (file.exists()) {
+			try {
+				for (Iterator<Map.Entry<String, JsonNode>> it = MAPPER.readTree(file).fields(); it.hasNext();) {
+					Map.Entry<String, JsonNode> field = it.next();
+					JsonNode node = field.getValue();
+					Entry entry = new Entry(node.get("profile"),
+							node.hasNonNull("oneDevUserId") ? node.get("oneDevUserId").asLong() : null,
+							node.get("timestamp").asLong());
+					if (!isExpired(entry))
+						entries.put(field.getKey(), entry);
+				}
+			} catch (IOException|RuntimeException e) {
+				logger.warn("Error reading Redmine identity map, discarding it: " + file, e);
+				entries.clear();
+			}
+		}
+		return entries;
+	}
+
+	private static class Entry {
+
+		final JsonNode profile;
+
+		final Long oneDevUserId;
+
+		final long timestamp;
+
+		Entry(@Nullable JsonNode profile, @Nullable Long oneDevUserId, long timestamp) {
+			this.profile = profile;
+			this.oneDevUserId = oneDevUserId;
+			this.timestamp = timestamp;
+		}
+
+	}
+
+}
@@ -3,6 +3,7 @@ package com.devcharly.onedev.plugin.imports.redmine;
 import static com.devcharly.onedev.plugin.imports.redmine.ImportUtils.NAME;
 import static com.devcharly.onedev.plugin.imports.redmine.ImportUtils.buildImportOption;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -13,6 +14,7 @@ import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.imports.IssueImporter;
 import io.onedev.server.model.Project;
+import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.web.component.taskbutton.TaskResult;
 import io.onedev.server.web.util.ImportStep;
@@ -85,19 +87,35 @@ public class RedmineIssueImporter implements IssueImporter {
 		return Lists.newArrayList(serverStep, sourceStep, optionStep);
 	}
 
+	/*
+	 * Imports in one transaction, unless issues are committed in chunks. These then get
+	 * transactions of their own within a session spanning the import.
+	 */
 	@Override
 	public TaskResult doImport(Long projectId, boolean dryRun, TaskLogger logger) {
-		return OneDev.getInstance(TransactionManager.class).call(() -> {
+		IssueImportOption option = optionStep.getSetting();
+		if (!dryRun && option.isImportIssues() && option.getIssuesPerTransaction() > 0)
+			return OneDev.getInstance(SessionManager.class).call(() -> doImport(projectId, dryRun, logger, true));
+		else
+			return OneDev.getInstance(TransactionManager.class).call(() -> doImport(projectId, dryRun, logger, false));
+	}
 
-			Project project = OneDev.getInstance(ProjectManager.class).load(projectId);
-			ImportServer where = serverStep.getSetting();
-			IssueImportSource what = sourceStep.getSetting();
-			IssueImportOption how = optionStep.getSetting();
+	private TaskResult doImport(Long projectId, boolean dryRun, TaskLogger logger, boolean chunked) throws IOException {
+		Project project = OneDev.getInstance(ProjectManager.class).load(projectId);
+		ImportServer where = serverStep.getSetting();
+		IssueImportSource what = sourceStep.getSetting();
+		IssueImportOption how = optionStep.getSetting();
 
+		try (RedmineSnapshot snapshot = where.openSnapshot(true)) {
 			ImportUtils iu = new ImportUtils(where, what, project, how, dryRun, logger);
+			iu.setSnapshot(snapshot);
 
 			if (how.isImportVersions()) {
-				iu.importVersions();
+				if (chunked) {
+					OneDev.getInstance(TransactionManager.class).run(() -> iu.importVersions());
+				} else {
+					iu.importVersions();
+				}
 				if (!how.isImportIssues()) {
 					return new TaskResult(true, new TaskResult.HtmlMessgae("Versions imported successfully"));
 				}
@@ -106,9 +124,7 @@ public class RedmineIssueImporter implements IssueImporter {
 			ImportResult importResult = iu.importIssues();
 
 			return new TaskResult(true, new TaskResult.HtmlMessgae(importResult.toHtml("Issues imported successfully")));
-
-		});
-
+		}
 	}
 
 }
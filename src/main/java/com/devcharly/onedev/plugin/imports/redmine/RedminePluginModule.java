@@ -19,6 +19,8 @@ public class RedminePluginModule extends AbstractPluginModule {
 	protected void configure() {
 		super.configure();
 
+		bind(RedmineConnectionManager.class).to(DefaultRedmineConnectionManager.class);
+
 		contribute(IssueImporterContribution.class, new IssueImporterContribution() {
 
 			@Override
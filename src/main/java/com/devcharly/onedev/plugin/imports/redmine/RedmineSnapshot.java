@@ -0,0 +1,336 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import io.onedev.commons.utils.ExplicitException;
+
+/**
+ * Single file archive of Redmine responses, recorded during an import and replayed by
+ * later imports instead of contacting the server.
+ * <p>
+ * Layout: deflated response bodies, followed by an index of <tt>key, length, segments</tt>
+ * entries, the offset of that index and a magic number. Bodies are deflated while they
+ * are recorded and appended in segments of limited size, so responses recorded at the
+ * same time interleave and none is held in memory as a whole. For replay the archive is
+ * memory mapped once, in large regions overlapping by the maximum segment size so each
+ * segment lies within a single region.
+ */
+class RedmineSnapshot implements Closeable {
+
+	private static final long MAGIC = 0x524d534e41503032L; // RMSNAP02
+
+	private static final int MAX_SEGMENT_SIZE = 64 * 1024;
+
+	private static final long REGION_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+
+	private final boolean replay;
+
+	private final Map<String, Entry> index;
+
+	private final MappedByteBuffer[] regions;
+
+	private long position;
+
+	private RedmineSnapshot(FileChannel channel, boolean replay, Map<String, Entry> index, long dataSize) {
+		this.channel = channel;
+		this.replay = replay;
+		this.index = index;
+		regions = new MappedByteBuffer[replay ? (int) ((dataSize + REGION_SIZE - 1) / REGION_SIZE) : 0];
+	}
+
+	static RedmineSnapshot record(File file) throws IOException {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs())
+			throw new IOException("Unable to create directory " + parent);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+		return new RedmineSnapshot(channel, false, new LinkedHashMap<>(), 0);
+	}
+
+	static RedmineSnapshot replay(File file) throws IOException {
+		if (!file.exists())
+			throw new ExplicitException("Snapshot file not found: " + file);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer trailer = ByteBuffer.allocate(16);
+			if (size < 16 || channel.read(trailer, size - 16) != 16)
+				throw new ExplicitException("Not a Redmine snapshot: " + file);
+			trailer.flip();
+			long indexOffset = trailer.getLong();
+			if (trailer.getLong() != MAGIC || indexOffset < 0 || indexOffset > size - 16)
+				throw new ExplicitException("Not a Redmine snapshot, recorded by an older version or recording incomplete: " + file);
+
+			Map<String, Entry> index = new HashMap<>();
+			InputStream is = Channels.newInputStream(channel.position(indexOffset));
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+			int count = dis.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = dis.readUTF();
+				Entry entry = new Entry(dis.readLong());
+				int numOfSegments = dis.readInt();
+				for (int j = 0; j < numOfSegments; j++) {
+					long offset = dis.readLong();
+					int length = dis.readInt();
+					if (offset < 0 || length < 0 || length > MAX_SEGMENT_SIZE || offset + length > indexOffset)
+						throw new ExplicitException("Corrupted snapshot index: " + file);
+					entry.segmentOffsets.add(offset);
+					entry.segmentLengths.add(length);
+				}
+				index.put(key, entry);
+			}
+			return new RedmineSnapshot(channel, true, index, indexOffset);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	boolean isReplay() {
+		return replay;
+	}
+
+	void record(String key, byte[] body) throws IOException {
+		try (Recording recording = startRecording()) {
+			recording.write(body);
+			recording.commit(key);
+		}
+	}
+
+	/**
+	 * Start recording a body. It is only added to the snapshot when committed, and the
+	 * recording has to be closed in any case.
+	 */
+	Recording startRecording() {
+		if (replay)
+			throw new IllegalStateException("Snapshot is opened for replay");
+		return new Recording();
+	}
+
+	private synchronized long append(byte[] bytes, int length) throws IOException {
+		ByteBuffer data = ByteBuffer.wrap(bytes, 0, length);
+		long offset = position;
+		while (data.hasRemaining())
+			position += channel.write(data, position);
+		return offset;
+	}
+
+	/**
+	 * @return stream of recorded body, or <tt>null</tt> if nothing was recorded for
+	 * 			specified key
+	 */
+	@Nullable
+	InputStream read(String key) throws IOException {
+		Entry entry = index.get(key);
+		if (entry == null)
+			return null;
+
+		List<ByteBuffer> segments = new ArrayList<>(entry.segmentOffsets.size());
+		for (int i = 0; i < entry.segmentOffsets.size(); i++) {
+			long offset = entry.segmentOffsets.get(i);
+			int regionIndex = (int) (offset / REGION_SIZE);
+			ByteBuffer segment = getRegion(regionIndex).duplicate();
+			segment.position((int) (offset - regionIndex * REGION_SIZE));
+			segment.limit(segment.position() + entry.segmentLengths.get(i));
+			segments.add(segment.slice());
+		}
+		return new InflaterInputStream(new SegmentInputStream(segments), new Inflater(), 8192) {
+
+			@Override
+			public void close() throws IOException {
+				// the inflater is ours, release its native memory
+				inf.end();
+				super.close();
+			}
+
+		};
+	}
+
+	private synchronized MappedByteBuffer getRegion(int regionIndex) throws IOException {
+		if (regions[regionIndex] == null) {
+			long start = regionIndex * REGION_SIZE;
+			long size = Math.min(REGION_SIZE + MAX_SEGMENT_SIZE, channel.size() - start);
+			regions[regionIndex] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		}
+		return regions[regionIndex];
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (!replay) {
+				channel.position(position);
+				DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+				dos.writeInt(index.size());
+				for (Map.Entry<String, Entry> each: index.entrySet()) {
+					Entry entry = each.getValue();
+					dos.writeUTF(each.getKey());
+					dos.writeLong(entry.length);
+					dos.writeInt(entry.segmentOffsets.size());
+					for (int i = 0; i < entry.segmentOffsets.size(); i++) {
+						dos.writeLong(entry.segmentOffsets.get(i));
+						dos.writeInt(entry.segmentLengths.get(i));
+					}
+				}
+				dos.writeLong(position);
+				dos.writeLong(MAGIC);
+				dos.flush();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Body being recorded. Written bytes are deflated, and each full segment of deflated
+	 * bytes is appended to the archive right away.
+	 */
+	class Recording extends OutputStream {
+
+		private final Entry entry = new Entry(0);
+
+		private final byte[] segment = new byte[MAX_SEGMENT_SIZE];
+
+		private int segmentLength;
+
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+		private final DeflaterOutputStream deflated = new DeflaterOutputStream(new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				while (len > 0) {
+					int count = Math.min(len, segment.length - segmentLength);
+					System.arraycopy(b, off, segment, segmentLength, count);
+					segmentLength += count;
+					off += count;
+					len -= count;
+					if (segmentLength == segment.length)
+						flushSegment();
+				}
+			}
+
+		}, deflater, 8192);
+
+		private Recording() {
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			deflated.write(b);
+			entry.length++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			deflated.write(b, off, len);
+			entry.length += len;
+		}
+
+		private void flushSegment() throws IOException {
+			if (segmentLength != 0) {
+				entry.segmentOffsets.add(append(segment, segmentLength));
+				entry.segmentLengths.add(segmentLength);
+				segmentLength = 0;
+			}
+		}
+
+		/**
+		 * Add the body written so far to the snapshot under specified key.
+		 */
+		void commit(String key) throws IOException {
+			deflated.finish();
+			flushSegment();
+			synchronized (RedmineSnapshot.this) {
+				index.put(key, entry);
+			}
+		}
+
+		/**
+		 * Segments of a body closed without commit stay in the archive unreferenced.
+		 */
+		@Override
+		public void close() {
+			deflater.end();
+		}
+
+	}
+
+	private static class SegmentInputStream extends InputStream {
+
+		private final List<ByteBuffer> segments;
+
+		private int current;
+
+		SegmentInputStream(List<ByteBuffer> segments) {
+			this.segments = segments;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (current < segments.size() && !segments.get(current).hasRemaining())
+				current++;
+			if (current == segments.size())
+				return -1;
+			ByteBuffer segment = segments.get(current);
+			int count = Math.min(len, segment.remaining());
+			segment.get(b, off, count);
+			return count;
+		}
+
+	}
+
+	private static class Entry {
+
+		long length;
+
+		final List<Long> segmentOffsets = new ArrayList<>();
+
+		final List<Integer> segmentLengths = new ArrayList<>();
+
+		Entry(long length) {
+			this.length = length;
+		}
+
+	}
+
+}
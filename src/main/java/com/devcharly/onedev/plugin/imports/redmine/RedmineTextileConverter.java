@@ -1,263 +1,641 @@
-package com.devcharly.onedev.plugin.imports.redmine;
-
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.commons.lang.StringUtils;
-
-/*
-
-https://www.redmine.org/projects/redmine/wiki/RedmineTextFormattingTextile
-
-Textile                      Markdown
--------                      --------
-
-h1. heading                  # heading
-h2. heading                  ## heading
-h3. heading                  ### heading
-h4. heading                  #### heading
-
-* unordered list             - unordered list
-** unordered list              - unordered list
-> * unordered list           > - unordered list
-> ** unordered list          >   - unordered list
-
-# ordered list               1. ordered list
-## ordered list                 1. ordered list
-> # ordered list             > 1. ordered list
-> ## ordered list            >    1. ordered list
-
-*bold*                       **bold**
-**bold**                     **bold**            (no change)
-_italic_                     _italic_            (no change)
-__italic__                   _italic_
-+underline+                  ++underline++
--strike-through-             ~~strike-through~~
-@inline code@                `inline code`
-
-<pre>                        ~~~
-pre-formatted                pre-formatted
-</pre>                       ~~~
-
-<pre><code class="java">     ~~~java
-pre-formatted                pre-formatted
-</code></pre>                ~~~
-
-> <pre>                      > ~~~
-quoted pre-formatted         > quoted pre-formatted
-</pre>                       > ~~~
-
-commit:123456789abcdef       123456789abcdef
-[[wiki-link]]                wiki-link
-!image_url!                  ![image_url](image_url)
-!>image_url!                 ![image_url](image_url)
-!image_url(Image title)!     ![Image title](image_url)
-
-*/
-
-class RedmineTextileConverter {
-
-	private static final String
-		H1_MATCH = "(?m)^\\h*h1\\.\\h+",
-		H2_MATCH = "(?m)^\\h*h2\\.\\h+",
-		H3_MATCH = "(?m)^\\h*h3\\.\\h+",
-		H4_MATCH = "(?m)^\\h*h4\\.\\h+",
-
-		H1_REPLACE = "# ",
-		H2_REPLACE = "## ",
-		H3_REPLACE = "### ",
-		H4_REPLACE = "#### ",
-
-		UNORDERED_LIST_MATCH   = "(?m)^(\\h*(?:|>\\h+))(\\*{1,10})(?=\\h+[^\\h\\n])",
-		ORDERED_LIST_MATCH     = "(?m)^(\\h*(?:|>\\h+))(#{1,10})(?=\\h+[^\\h\\n])",
-
-		ITALIC_MATCH           = "(?m)(?<=^|\\h|\\|)__(?!\\h|_)(.+?)(?<!\\h)__(?=$|\\W|\\|)",
-		BOLD_MATCH             = "(?m)(?<=^|\\h|\\|)\\*(?!\\h|\\*)(.+?)(?<!\\h)\\*(?=$|\\W|\\|)",
-		UNDERLINE_MATCH        = "(?m)(?<=^|\\h|\\|)\\+(?!\\h|\\+)(.+?)(?<!\\h)\\+(?=$|\\W|\\|)",
-		STRIKE_THROUGH_MATCH   = "(?m)(?<=^|\\h|\\|)\\-(?!\\h|\\-)(.+?)(?<!\\h)\\-(?=$|\\W|\\|)",
-		INLINE_CODE_MATCH      = "(?m)(?<=^|\\h|\\|)@(?!\\h|@)(.+?)(?<!\\h)@(?=$|\\W|\\|)",
-
-		ITALIC_REPLACE         = "_$1_",
-		BOLD_REPLACE           = "**$1**",
-		UNDERLINE_REPLACE      = "++$1++",
-		STRIKE_THROUGH_REPLACE = "~~$1~~",
-
-		QUOTED_PRE_MATCH       = "(?ms)^(>\\h*<pre>)(.*?)(</pre>)",
-		PRE_MATCH              = "(?s)(\\h*|>\\s*)<pre>\\h*\\n?(.*?)\\n?(\\h*|>\\s*)</pre>\\h*\\n?",
-		PRE_CODE_MATCH         = "(?s)^\\s*<code\\s+class=\"(.*?)\">\\h*\\n?(.*?)\\n?\\h*<\\/code>\\s*$",
-		PRE_CODE_REPLACE       = "$1\n$2",
-
-		COMMIT_MATCH           = "(?m)(?<=^|\\h)commit:(\\\"?)([\\da-fA-F]{8,})\\1",
-		COMMIT_REPLACE         = "$2 ",
-
-		WIKI_LINK_MATCH        = "\\[\\[([^#\\|:]+?)\\]\\]",
-		WIKI_LINK_REPLACE      = "$1",
-
-		IMAGE_MATCH            = "(?mi)(?<=^|\\h)!>?(?!\\h)(.+?(?:\\.png|\\.gif|\\.jpg|\\.jpeg))!",
-		IMAGE_TITLE_MATCH      = "(?mi)(?<=^|\\h)!>?(?!\\h)(.+?(?:\\.png|\\.gif|\\.jpg|\\.jpeg))\\((.+?)\\)!",
-		IMAGE_REPLACE          = "![$1]($1)",
-		IMAGE_TITLE_REPLACE    = "![$2]($1)";
-
-
-	static String convertTextileToMarkdown(String str) {
-		if (str == null || str.isEmpty())
-			return str;
-
-		// quoted pre-formatted text
-		str = replace(str, QUOTED_PRE_MATCH, matcher -> {
-			String content = matcher.group(2);
-			if (!content.startsWith("\n"))
-				content = '\n' + content;
-			content = content.replaceAll("\\n(?!>)", "\n> ");
-			if (!content.endsWith("\n> "))
-				content += "\n> ";
-			return matcher.group(1) + content + matcher.group(3);
-		});
-
-		// pre-formatted text
-		// replace all text between <pre> and </pre> with temporary tags
-		// to exclude it from further processing
-		HashMap<String, String[]> tempPreTags = new HashMap<>();
-		AtomicInteger preId = new AtomicInteger();
-		str = replace(str, PRE_MATCH, matcher -> {
-			String tempTag = "<temptag-pre-" + preId.incrementAndGet() + ">";
-			tempPreTags.put(tempTag, new String[] {
-					matcher.group(1),
-					matcher.group(2),
-					matcher.group(3),
-			});
-			return tempTag;
-		});
-
-		// inline code
-		// replace all inline code (@code@) with temporary tags
-		// to exclude it from further processing (e.g. for @*text*@)
-		HashMap<String, String> tempTags = new HashMap<>();
-		AtomicInteger tempId = new AtomicInteger();
-		str = replace(str, INLINE_CODE_MATCH, matcher -> {
-			String tempTag = "<temptag-code-" + tempId.incrementAndGet() + ">";
-			tempTags.put(tempTag, "`" + matcher.group(1) + "`");
-			return tempTag;
-		});
-
-		// unordered lists
-		str = replace(str, UNORDERED_LIST_MATCH, matcher -> {
-			return matcher.group(1) + StringUtils.repeat(" ", (matcher.group(2).length() - 1) * 2) + "-";
-		});
-
-		// ordered lists
-		str = replace(str, ORDERED_LIST_MATCH, matcher -> {
-			return matcher.group(1) + StringUtils.repeat(" ", (matcher.group(2).length() - 1) * 3) + "1.";
-		});
-
-		// headings
-		str = str.replaceAll(H1_MATCH, H1_REPLACE);
-		str = str.replaceAll(H2_MATCH, H2_REPLACE);
-		str = str.replaceAll(H3_MATCH, H3_REPLACE);
-		str = str.replaceAll(H4_MATCH, H4_REPLACE);
-
-		// __italic__ -> _italic_
-		str = str.replaceAll(ITALIC_MATCH, ITALIC_REPLACE);
-
-		// *bold* -> **bold**
-		str = str.replaceAll(BOLD_MATCH, BOLD_REPLACE);
-
-		// +underline+ -> ++underline++
-		str = str.replaceAll(UNDERLINE_MATCH, UNDERLINE_REPLACE);
-
-		// -strike-through- -> ~~strike-through~~
-		str = str.replaceAll(STRIKE_THROUGH_MATCH, STRIKE_THROUGH_REPLACE);
-
-		// remove prefix "commit:" from commit links
-		str = str.replaceAll(COMMIT_MATCH, COMMIT_REPLACE);
-
-		// remove simple wiki links
-		str = str.replaceAll(WIKI_LINK_MATCH, WIKI_LINK_REPLACE);
-
-		// inline images
-		str = str.replaceAll(IMAGE_TITLE_MATCH, IMAGE_TITLE_REPLACE);
-		str = str.replaceAll(IMAGE_MATCH, IMAGE_REPLACE);
-
-		// replace temporary tags
-		for (Entry<String, String> e : tempTags.entrySet())
-			str = str.replace(e.getKey(), e.getValue());
-
-		// replace temporary tags with markdown code blocks
-		for (Entry<String, String[]> e : tempPreTags.entrySet()) {
-			String[] values = e.getValue();
-			String value = values[1];
-			String value2 = value.replaceAll(PRE_CODE_MATCH, PRE_CODE_REPLACE);
-
-			String replacement = values[0].startsWith(">") ? "> ~~~" : "~~~";
-			if (value2.equals(value))
-				replacement += '\n';
-			replacement += value2;
-			replacement += values[2].startsWith(">") ? "\n> ~~~\n" : "\n~~~\n";
-
-			str = str.replace(e.getKey(), replacement);
-		}
-
-		return str;
-	}
-
-	private static String replace( String str, String regex, Function<Matcher, String> callback ) {
-		Matcher matcher = Pattern.compile( regex ).matcher( str );
-
-		boolean result = matcher.find();
-		if( !result )
-			return str;
-
-		StringBuffer sb = new StringBuffer();
-		do {
-			matcher.appendReplacement( sb, Matcher.quoteReplacement( callback.apply( matcher ) ) );
-			result = matcher.find();
-		} while( result );
-		matcher.appendTail( sb );
-		return sb.toString();
-	}
-
-/*
-	public static void main(String[] args) {
-		testBold( "*bold*", "<x>bold</x>" );
-		testBold( " *bold*", " <x>bold</x>" );
-		testBold( "*bold* ", "<x>bold</x> " );
-
-		testBold( "text *bold* text", "text <x>bold</x> text" );
-		testBold( "text *bold*", "text <x>bold</x>" );
-		testBold( "*bold* text", "<x>bold</x> text" );
-
-		testBold( "|*bold*|", "|<x>bold</x>|" );
-		testBold( "|*bold*", "|<x>bold</x>" );
-		testBold( "*bold*|", "<x>bold</x>|" );
-
-		testBold( "*bold*.", "<x>bold</x>." );
-		testBold( ".*notbold*", null );
-
-		testBold( "text *bold*bold* text", "text <x>bold*bold</x> text" );
-
-		testBold( "* notbold*", null );
-		testBold( "*notbold *", null );
-		testBold( "text*notbold*", null );
-		testBold( "*notbold*text", null );
-
-		testBold( "**", null );
-		testBold( "***", null );
-		testBold( "****", null );
-	}
-
-	private static void testBold(String input, String expeded) {
-		if (expeded == null)
-			expeded = input;
-		assertEquals(expeded, input.replaceAll(BOLD_MATCH, "<x>$1</x>"));
-	}
-
-	private static void assertEquals(Object expected, Object actual) {
-		if (!java.util.Objects.equals(expected, actual))
-			throw new RuntimeException(expected + " - " + actual);
-	}
-*/
-}
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/*
+
+https://www.redmine.org/projects/redmine/wiki/RedmineTextFormattingTextile
+
+Textile                      Markdown
+-------                      --------
+
+h1. heading                  # heading
+h2. heading                  ## heading
+h3. heading                  ### heading
+h4. heading                  #### heading
+
+* unordered list             - unordered list
+** unordered list              - unordered list
+> * unordered list           > - unordered list
+> ** unordered list          >   - unordered list
+
+# ordered list               1. ordered list
+## ordered list                 1. ordered list
+> # ordered list             > 1. ordered list
+> ## ordered list            >    1. ordered list
+
+*bold*                       **bold**
+**bold**                     **bold**            (no change)
+_italic_                     _italic_            (no change)
+__italic__                   _italic_
++underline+                  ++underline++
+-strike-through-             ~~strike-through~~
+@inline code@                `inline code`
+
+<pre>                        ~~~
+pre-formatted                pre-formatted
+</pre>                       ~~~
+
+<pre><code class="java">     ~~~java
+pre-formatted                pre-formatted
+</code></pre>                ~~~
+
+> <pre>                      > ~~~
+quoted pre-formatted         > quoted pre-formatted
+</pre>                       > ~~~
+
+commit:123456789abcdef       123456789abcdef
+[[wiki-link]]                wiki-link
+!image_url!                  ![image_url](image_url)
+!>image_url!                 ![image_url](image_url)
+!image_url(Image title)!     ![Image title](image_url)
+
+*/
+
+/**
+ * Converts Redmine Textile to Markdown in a single scan. Text is split into <tt>&lt;pre&gt;</tt>
+ * blocks, which are emitted as fenced code without further processing, and lines in
+ * between. Line starts are checked for list markers and headings, and the rest of a line
+ * is scanned for inline markup. Inline code spans of a line are found first and treated as
+ * opaque, so markup inside them is left alone and other markup does not end inside them.
+ * <p>
+ * Markup delimiters follow the rules of Redmine: an opening delimiter follows a line start,
+ * whitespace or <tt>|</tt> and is not followed by whitespace, and a closing delimiter is
+ * not preceded by whitespace and is followed by the line end or a non-word character.
+ * <p>
+ * Looking for closing delimiters may scan far ahead, so text crafted or pasted with many
+ * unclosed delimiters could take time quadratic in its length. Scanning is therefore
+ * charged against a budget linear in the text length, and a conversion exceeding it, or
+ * running longer than a few seconds anyway, fails with {@link BudgetExceededException}.
+ */
+class RedmineTextileConverter {
+
+	private static final String[] IMAGE_EXTENSIONS = {".png", ".gif", ".jpg", ".jpeg"};
+
+	private static final long BASE_STEPS = 1_000_000;
+
+	private static final long STEPS_PER_CHAR = 64;
+
+	private static final long MAX_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	// checking the clock every step would cost more than the scanning itself
+	private static final int CLOCK_CHECK_INTERVAL = 1 << 16;
+
+	private final String text;
+
+	private final long maxSteps;
+
+	private final long deadline;
+
+	private long steps;
+
+	private long nextClockCheck = CLOCK_CHECK_INTERVAL;
+
+	private final StringBuilder out;
+
+	// inline code spans of the current line
+	private int[] codeSpanStarts = new int[8];
+
+	private int[] codeSpanEnds = new int[8];
+
+	private int numOfCodeSpans;
+
+	private RedmineTextileConverter(String text) {
+		this.text = text;
+		out = new StringBuilder(text.length() + text.length() / 8);
+		maxSteps = BASE_STEPS + STEPS_PER_CHAR * text.length();
+		deadline = System.nanoTime() + MAX_NANOS;
+	}
+
+	/**
+	 * @throws BudgetExceededException if conversion takes too long
+	 */
+	static String convertTextileToMarkdown(String str) {
+		if (str == null || str.isEmpty())
+			return str;
+		return new RedmineTextileConverter(str).convert();
+	}
+
+	/**
+	 * Wrap text as fenced block, shown verbatim. The fence is longer than any run of
+	 * tildes in the text, so the text cannot close it.
+	 */
+	static String toVerbatimBlock(String str) {
+		int longestRun = 0;
+		int run = 0;
+		for (int i = 0; i < str.length(); i++) {
+			run = str.charAt(i) == '~' ? run + 1 : 0;
+			longestRun = Math.max(longestRun, run);
+		}
+		char[] fence = new char[Math.max(3, longestRun + 1)];
+		Arrays.fill(fence, '~');
+		StringBuilder builder = new StringBuilder(str.length() + 2 * fence.length + 2);
+		builder.append(fence).append('\n').append(str);
+		if (!str.endsWith("\n"))
+			builder.append('\n');
+		return builder.append(fence).toString();
+	}
+
+	private void charge(int numOfSteps) {
+		steps += numOfSteps;
+		if (steps > maxSteps)
+			throw new BudgetExceededException("Textile conversion exceeds " + maxSteps + " steps");
+		if (steps >= nextClockCheck) {
+			nextClockCheck = steps + CLOCK_CHECK_INTERVAL;
+			if (System.nanoTime() - deadline > 0)
+				throw new BudgetExceededException("Textile conversion exceeds " + TimeUnit.NANOSECONDS.toSeconds(MAX_NANOS) + " seconds");
+		}
+	}
+
+	private String convert() {
+		int pos = 0;
+		int preIndex = text.indexOf("<pre>");
+		while (preIndex != -1) {
+			int closeIndex = text.indexOf("</pre>", preIndex + 5);
+			if (closeIndex == -1)
+				break;
+			int lineStart = text.lastIndexOf('\n', preIndex - 1) + 1;
+			if (lineStart >= pos && text.charAt(lineStart) == '>' && isHspaceOnly(lineStart + 1, preIndex)) {
+				// quoted pre-formatted text
+				convertLines(pos, lineStart);
+				String content = text.substring(preIndex + 5, closeIndex);
+				if (!content.startsWith("\n"))
+					content = '\n' + content;
+				content = quoteLines(content);
+				if (!content.endsWith("\n> "))
+					content += "\n> ";
+				String block = text.substring(lineStart, preIndex + 5) + content;
+				appendPre(block, 0, preIndex - lineStart, block.length());
+			} else {
+				int start = preIndex;
+				while (start > pos && isHspace(text.charAt(start - 1)))
+					start--;
+				convertLines(pos, start);
+				appendPre(text, start, preIndex, closeIndex);
+			}
+			pos = closeIndex + 6;
+			while (pos < text.length() && isHspace(text.charAt(pos)))
+				pos++;
+			if (pos < text.length() && text.charAt(pos) == '\n')
+				pos++;
+			preIndex = text.indexOf("<pre>", pos);
+		}
+		convertLines(pos, text.length());
+		return out.toString();
+	}
+
+	/*
+	 * Lines not starting with a quote marker get one.
+	 */
+	private static String quoteLines(String content) {
+		StringBuilder builder = new StringBuilder(content.length() + 32);
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			builder.append(c);
+			if (c == '\n' && (i + 1 == content.length() || content.charAt(i + 1) != '>'))
+				builder.append("> ");
+		}
+		return builder.toString();
+	}
+
+	/*
+	 * Append pre-formatted text of specified string as fenced code block. The block starts
+	 * with optional whitespace or a quote marker at <tt>start</tt>, and its content lies
+	 * between <tt>&lt;pre&gt;</tt> at <tt>preIndex</tt> and <tt>&lt;/pre&gt;</tt> at
+	 * <tt>closeIndex</tt>.
+	 */
+	private void appendPre(String str, int start, int preIndex, int closeIndex) {
+		int contentStart = preIndex + 5;
+		while (contentStart < closeIndex && isHspace(str.charAt(contentStart)))
+			contentStart++;
+		if (contentStart < closeIndex && str.charAt(contentStart) == '\n')
+			contentStart++;
+
+		/*
+		 * Content ends before a newline followed by whitespace or a quote marker. The quote
+		 * marker has to start a line, so that the one of a closing tag such as
+		 * <tt>&lt;/code&gt;</tt> is kept.
+		 */
+		int contentEnd = closeIndex;
+		int index = closeIndex;
+		while (index > contentStart && isHspace(str.charAt(index - 1)))
+			index--;
+		contentEnd = Math.min(contentEnd, withNewline(str, contentStart, index));
+		index = closeIndex;
+		while (index > contentStart && isWhitespace(str.charAt(index - 1)))
+			index--;
+		if (index > contentStart && str.charAt(index - 1) == '>'
+				&& (index - 1 == contentStart || str.charAt(index - 2) == '\n')) {
+			contentEnd = Math.min(contentEnd, withNewline(str, contentStart, index - 1));
+		}
+		int closeStart = contentEnd < closeIndex && str.charAt(contentEnd) == '\n' ? contentEnd + 1 : contentEnd;
+		boolean quotedClose = closeStart < closeIndex && str.charAt(closeStart) == '>';
+
+		out.append(str.charAt(start) == '>' ? "> ~~~" : "~~~");
+		if (!appendCode(str, contentStart, contentEnd)) {
+			out.append('\n');
+			out.append(str, contentStart, contentEnd);
+		}
+		out.append(quotedClose ? "\n> ~~~\n" : "\n~~~\n");
+	}
+
+	private static int withNewline(String str, int contentStart, int index) {
+		return index > contentStart && str.charAt(index - 1) == '\n' ? index - 1 : index;
+	}
+
+	/*
+	 * Append content of the form <tt>&lt;code class="language"&gt;...&lt;/code&gt;</tt> as
+	 * language and code.
+	 */
+	private boolean appendCode(String str, int start, int end) {
+		int index = start;
+		while (index < end && isWhitespace(str.charAt(index)))
+			index++;
+		if (!str.startsWith("<code", index))
+			return false;
+		index += 5;
+		int classIndex = index;
+		while (index < end && isWhitespace(str.charAt(index)))
+			index++;
+		if (index == classIndex || !str.startsWith("class=\"", index))
+			return false;
+		int languageStart = index + 7;
+		int languageEnd = str.indexOf("\">", languageStart);
+		if (languageEnd == -1 || languageEnd + 2 > end)
+			return false;
+
+		int codeStart = languageEnd + 2;
+		while (codeStart < end && isHspace(str.charAt(codeStart)))
+			codeStart++;
+		if (codeStart < end && str.charAt(codeStart) == '\n')
+			codeStart++;
+
+		int codeClose = end;
+		while (codeClose > codeStart && isWhitespace(str.charAt(codeClose - 1)))
+			codeClose--;
+		codeClose -= 7;
+		if (codeClose < codeStart || !str.startsWith("</code>", codeClose))
+			return false;
+		int codeEnd = codeClose;
+		while (codeEnd > codeStart && isHspace(str.charAt(codeEnd - 1)))
+			codeEnd--;
+		codeEnd = withNewline(str, codeStart, codeEnd);
+
+		out.append(str, languageStart, languageEnd).append('\n').append(str, codeStart, codeEnd);
+		return true;
+	}
+
+	private void convertLines(int start, int end) {
+		int lineStart = start;
+		while (lineStart < end) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd == -1 || lineEnd > end)
+				lineEnd = end;
+			findCodeSpans(lineStart, lineEnd);
+			int inlineStart = lineStart;
+			if (out.length() == 0 || out.charAt(out.length() - 1) == '\n')
+				inlineStart = convertLineStart(lineStart, lineEnd);
+			convertInline(inlineStart, lineEnd, lineEnd);
+			if (lineEnd < end)
+				out.append('\n');
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	/*
+	 * Convert list markers and headings.
+	 *
+	 * @return index to continue with
+	 */
+	private int convertLineStart(int lineStart, int lineEnd) {
+		int index = lineStart;
+		while (index < lineEnd && isHspace(text.charAt(index)))
+			index++;
+
+		int markerStart = index;
+		if (index < lineEnd && text.charAt(index) == '>') {
+			int quoteEnd = index + 1;
+			while (quoteEnd < lineEnd && isHspace(text.charAt(quoteEnd)))
+				quoteEnd++;
+			if (quoteEnd > index + 1)
+				markerStart = quoteEnd;
+		}
+		if (markerStart < lineEnd && (text.charAt(markerStart) == '*' || text.charAt(markerStart) == '#')) {
+			char marker = text.charAt(markerStart);
+			int markerEnd = markerStart;
+			while (markerEnd < lineEnd && text.charAt(markerEnd) == marker)
+				markerEnd++;
+			int itemStart = markerEnd;
+			while (itemStart < lineEnd && isHspace(text.charAt(itemStart)))
+				itemStart++;
+			int level = markerEnd - markerStart;
+			if (level <= 10 && itemStart > markerEnd && itemStart < lineEnd) {
+				out.append(text, lineStart, markerStart);
+				if (marker == '*')
+					appendSpaces((level - 1) * 2).append('-');
+				else
+					appendSpaces((level - 1) * 3).append("1.");
+				return markerEnd;
+			}
+		}
+
+		if (index + 3 < lineEnd && text.charAt(index) == 'h' && text.charAt(index + 1) >= '1'
+				&& text.charAt(index + 1) <= '4' && text.charAt(index + 2) == '.' && isHspace(text.charAt(index + 3))) {
+			int level = text.charAt(index + 1) - '0';
+			for (int i = 0; i < level; i++)
+				out.append('#');
+			out.append(' ');
+			index += 4;
+			while (index < lineEnd && isHspace(text.charAt(index)))
+				index++;
+			return index;
+		}
+		return lineStart;
+	}
+
+	private StringBuilder appendSpaces(int count) {
+		for (int i = 0; i < count; i++)
+			out.append(' ');
+		return out;
+	}
+
+	private void findCodeSpans(int lineStart, int lineEnd) {
+		numOfCodeSpans = 0;
+		int index = lineStart;
+		while (index < lineEnd) {
+			if (text.charAt(index) == '@' && (index == lineStart || isOpeningBoundary(text.charAt(index - 1)))) {
+				int end = findClosing("@", index, lineEnd, lineEnd, false);
+				if (end != -1) {
+					if (numOfCodeSpans == codeSpanStarts.length) {
+						codeSpanStarts = Arrays.copyOf(codeSpanStarts, numOfCodeSpans * 2);
+						codeSpanEnds = Arrays.copyOf(codeSpanEnds, numOfCodeSpans * 2);
+					}
+					codeSpanStarts[numOfCodeSpans] = index;
+					codeSpanEnds[numOfCodeSpans] = end + 1;
+					numOfCodeSpans++;
+					index = end + 1;
+					continue;
+				}
+			}
+			index++;
+		}
+	}
+
+	/*
+	 * @return end index of the code span starting at specified index, or -1 if there is none
+	 */
+	private int getCodeSpanEnd(int index) {
+		if (numOfCodeSpans == 0)
+			return -1;
+		int i = Arrays.binarySearch(codeSpanStarts, 0, numOfCodeSpans, index);
+		return i >= 0 ? codeSpanEnds[i] : -1;
+	}
+
+	private void convertInline(int start, int end, int lineEnd) {
+		int index = start;
+		while (index < end) {
+			char c = text.charAt(index);
+			int next = -1;
+			switch (c) {
+			case '@':
+				next = getCodeSpanEnd(index);
+				if (next != -1)
+					out.append('`').append(text, index + 1, next - 1).append('`');
+				break;
+			case '_':
+				next = convertSpan("__", "_", index, end, lineEnd);
+				break;
+			case '*':
+				next = convertSpan("*", "**", index, end, lineEnd);
+				break;
+			case '+':
+				next = convertSpan("+", "++", index, end, lineEnd);
+				break;
+			case '-':
+				next = convertSpan("-", "~~", index, end, lineEnd);
+				break;
+			case 'c':
+				next = convertCommit(index, end);
+				break;
+			case '[':
+				next = convertWikiLink(index, end);
+				break;
+			case '!':
+				next = convertImage(index, end);
+				break;
+			}
+			if (next != -1) {
+				index = next;
+			} else {
+				out.append(c);
+				index++;
+			}
+		}
+	}
+
+	/*
+	 * Convert a span enclosed by specified delimiter, converting its content as well.
+	 *
+	 * @return index after the span, or -1 if there is no span at specified index
+	 */
+	private int convertSpan(String delimiter, String replacement, int index, int end, int lineEnd) {
+		if (!text.startsWith(delimiter, index) || !isAtOpeningBoundary())
+			return -1;
+		int closing = findClosing(delimiter, index, end, lineEnd, true);
+		if (closing == -1)
+			return -1;
+		out.append(replacement);
+		convertInline(index + delimiter.length(), closing, lineEnd);
+		out.append(replacement);
+		return closing + delimiter.length();
+	}
+
+	/*
+	 * Find the first closing delimiter before specified end of a span opened at specified
+	 * index. The character after the delimiter is checked up to the line end, as spans
+	 * may end right before the closing delimiter of an enclosing span.
+	 *
+	 * @return index of the closing delimiter, or -1 if the span is not closed
+	 */
+	private int findClosing(String delimiter, int index, int end, int lineEnd, boolean skipCodeSpans) {
+		int contentStart = index + delimiter.length();
+		if (contentStart >= end || isHspace(text.charAt(contentStart))
+				|| text.charAt(contentStart) == delimiter.charAt(0)) {
+			return -1;
+		}
+		int closing = contentStart + 1;
+		while (closing + delimiter.length() <= end) {
+			if (skipCodeSpans) {
+				int codeSpanEnd = getCodeSpanEnd(closing);
+				if (codeSpanEnd != -1) {
+					closing = codeSpanEnd;
+					continue;
+				}
+			}
+			if (text.startsWith(delimiter, closing) && !isHspace(text.charAt(closing - 1))) {
+				int after = closing + delimiter.length();
+				if (after == lineEnd || !isWordChar(text.charAt(after))) {
+					charge(closing - contentStart);
+					return closing;
+				}
+			}
+			closing++;
+		}
+		charge(closing - contentStart);
+		return -1;
+	}
+
+	/*
+	 * Remove prefix <tt>commit:</tt> from commit links.
+	 */
+	private int convertCommit(int index, int end) {
+		if (!text.startsWith("commit:", index) || !isAtWhitespaceBoundary())
+			return -1;
+		int hashStart = index + 7;
+		boolean quoted = hashStart < end && text.charAt(hashStart) == '"';
+		if (quoted)
+			hashStart++;
+		int hashEnd = hashStart;
+		while (hashEnd < end && isHexDigit(text.charAt(hashEnd)))
+			hashEnd++;
+		if (hashEnd - hashStart < 8)
+			return -1;
+		if (quoted) {
+			if (hashEnd == end || text.charAt(hashEnd) != '"')
+				return -1;
+			out.append(text, hashStart, hashEnd).append(' ');
+			return hashEnd + 1;
+		} else {
+			out.append(text, hashStart, hashEnd).append(' ');
+			return hashEnd;
+		}
+	}
+
+	/*
+	 * Remove brackets of simple wiki links, those without anchor, label or project.
+	 */
+	private int convertWikiLink(int index, int end) {
+		if (!text.startsWith("[[", index))
+			return -1;
+		for (int i = index + 2; i < end; i++) {
+			if (i > index + 2 && text.startsWith("]]", i)) {
+				charge(i - index);
+				out.append(text, index + 2, i);
+				return i + 2;
+			}
+			char c = text.charAt(i);
+			if (c == '#' || c == '|' || c == ':') {
+				charge(i - index);
+				return -1;
+			}
+		}
+		charge(end - index);
+		return -1;
+	}
+
+	/*
+	 * Convert inline images, optionally aligned and titled.
+	 */
+	private int convertImage(int index, int end) {
+		if (!isAtWhitespaceBoundary())
+			return -1;
+		int urlStart = index + 1;
+		if (urlStart < end && text.charAt(urlStart) == '>')
+			urlStart++;
+		if (urlStart >= end || isHspace(text.charAt(urlStart)))
+			return -1;
+
+		// the image ends with the first image file name followed by a title or by '!'
+		for (int urlEnd = urlStart + 2; urlEnd < end; urlEnd++) {
+			char c = text.charAt(urlEnd);
+			if ((c == '!' || c == '(') && hasImageExtension(urlStart, urlEnd)) {
+				if (c == '!') {
+					charge(urlEnd - index);
+					out.append("![").append(text, urlStart, urlEnd).append("](")
+							.append(text, urlStart, urlEnd).append(')');
+					return urlEnd + 1;
+				}
+				int titleEnd = urlEnd + 2;
+				while (titleEnd + 2 <= end && !text.startsWith(")!", titleEnd))
+					titleEnd++;
+				charge(titleEnd - urlEnd);
+				if (titleEnd + 2 <= end) {
+					charge(urlEnd - index);
+					out.append("![").append(text, urlEnd + 1, titleEnd).append("](")
+							.append(text, urlStart, urlEnd).append(')');
+					return titleEnd + 2;
+				}
+			}
+		}
+		charge(end - index);
+		return -1;
+	}
+
+	private boolean hasImageExtension(int urlStart, int urlEnd) {
+		for (String extension: IMAGE_EXTENSIONS) {
+			int extensionStart = urlEnd - extension.length();
+			if (extensionStart > urlStart && text.regionMatches(true, extensionStart, extension, 0, extension.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Boundaries are checked against converted text, as Redmine applies markup rules one
+	 * after another to the result of earlier ones.
+	 */
+	private boolean isAtOpeningBoundary() {
+		return out.length() == 0 || isOpeningBoundary(out.charAt(out.length() - 1));
+	}
+
+	private boolean isAtWhitespaceBoundary() {
+		if (out.length() == 0)
+			return true;
+		char c = out.charAt(out.length() - 1);
+		return c == '\n' || isHspace(c);
+	}
+
+	private static boolean isOpeningBoundary(char c) {
+		return c == '\n' || c == '|' || isHspace(c);
+	}
+
+	private boolean isHspaceOnly(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!isHspace(text.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isHspace(char c) {
+		return c == ' ' || c == '\t' || c == '\u00a0' || c == '\u1680' || c == '\u180e'
+				|| c >= '\u2000' && c <= '\u200a' || c == '\u202f' || c == '\u205f' || c == '\u3000';
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isWordChar(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+	}
+
+	private static boolean isHexDigit(char c) {
+		return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+	}
+
+	/**
+	 * Thrown if conversion of a text exceeds its budget.
+	 */
+	static class BudgetExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		BudgetExceededException(String message) {
+			super(message);
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.onedev.commons.utils.ExplicitException;
+import io.onedev.server.OneDev;
+
+/**
+ * Resolves Redmine user profiles for the importer. Profiles come from the bulk user
+ * listing where possible. Users missing there (locked users, or any user if the listing
+ * carries no email addresses because the access key is not an administrator's) are
+ * fetched one by one, and concurrent lookups of the same user share a single request.
+ * Profiles remembered from earlier imports of the same server are used without asking
+ * Redmine at all.
+ */
+class RedmineUserResolver {
+
+	private static final Logger logger = LoggerFactory.getLogger(RedmineUserResolver.class);
+
+	private final ImportServer server;
+
+	private final RedmineClient rc;
+
+	private final RedmineIdentityMap identityMap;
+
+	private final Map<String, CompletableFuture<Optional<JsonNode>>> profiles = new ConcurrentHashMap<>();
+
+	RedmineUserResolver(ImportServer server, RedmineClient rc, @Nullable RedmineIdentityMap identityMap) {
+		this.server = server;
+		this.rc = rc;
+		this.identityMap = identityMap;
+	}
+
+	/**
+	 * List all active users and remember the profiles that are complete.
+	 *
+	 * @return user nodes of the listing
+	 */
+	List<JsonNode> listUsers() {
+		List<JsonNode> userNodes = rc.listReference(server.getApiEndpoint("/users.json"), "users");
+		for (JsonNode userNode: userNodes) {
+			if (userNode.hasNonNull("mail")) {
+				profiles.putIfAbsent(userNode.get("id").asText(), CompletableFuture.completedFuture(Optional.of(userNode)));
+				if (identityMap != null)
+					identityMap.putProfile(userNode.get("id").asText(), Optional.of(userNode));
+			}
+		}
+		return userNodes;
+	}
+
+	/**
+	 * Start fetching the profile of specified user in the background unless it is known
+	 * or already being fetched.
+	 */
+	void prefetch(String redmineUserId) {
+		fetch(redmineUserId);
+	}
+
+	/**
+	 * @return profile of specified user, empty if Redmine does not know the user
+	 */
+	Optional<JsonNode> getProfile(String redmineUserId) throws InterruptedException {
+		try {
+			return fetch(redmineUserId).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private CompletableFuture<Optional<JsonNode>> fetch(String redmineUserId) {
+		return profiles.computeIfAbsent(redmineUserId, k -> {
+			Optional<JsonNode> remembered = identityMap != null ? identityMap.getProfile(k) : null;
+			if (remembered != null)
+				return CompletableFuture.completedFuture(remembered);
+			return CompletableFuture.supplyAsync(() -> {
+				Optional<JsonNode> profile;
+				try {
+					profile = Optional.ofNullable(rc.get(server.getApiEndpoint("/users/" + k + ".json")).get("user"));
+				} catch (RedmineClient.StatusException e) {
+					// Redmine returns status 404 for unknown users
+					if (e.getStatus() == 404) {
+						profile = Optional.empty();
+					} else if (RetryPolicy.isRetryableStatus(e.getStatus())) {
+						// Redmine is unavailable, the user is not known to be missing
+						throw e;
+					} else {
+						// not visible to the access key, such as 403, may change with another key
+						logger.warn("Unable to get profile of Redmine user " + k + ": " + e.getMessage());
+						return Optional.empty();
+					}
+				} catch (ExplicitException e) {
+					// not recorded in the snapshot being replayed
+					return Optional.empty();
+				}
+				if (identityMap != null)
+					identityMap.putProfile(k, profile);
+				return profile;
+			}, OneDev.getInstance(ExecutorService.class));
+		});
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bodies of Redmine reference data responses (statuses, trackers, priorities, custom
+ * fields, users) together with their validators, so that later requests can be sent
+ * conditionally and reuse the body on <tt>304 Not Modified</tt>.
+ */
+class ReferenceDataCache {
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	@Nullable
+	Entry get(String url) {
+		return entries.get(url);
+	}
+
+	void put(String url, @Nullable String etag, @Nullable String lastModified, byte[] body) {
+		if (etag != null || lastModified != null)
+			entries.put(url, new Entry(etag, lastModified, body));
+		else
+			entries.remove(url);
+	}
+
+	static class Entry {
+
+		final String etag;
+
+		final String lastModified;
+
+		final byte[] body;
+
+		Entry(@Nullable String etag, @Nullable String lastModified, byte[] body) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Disk backed cache of Redmine responses for one server, so that a real import run after
+ * a dry run reads issue details from local disk.
+ * <p>
+ * Entries are keyed by the normalized request URL and carry a validator (the
+ * <tt>updated_on</tt> timestamp of the issue); an entry stored with a different validator
+ * is treated as stale. The cache is bounded in size and evicts least recently used
+ * entries first.
+ * <p>
+ * Files are read and replaced under a lock of their key, and new entries are written to a
+ * temporary file outside of any lock, so threads only wait for each other when accessing
+ * the same entry. The cache wide lock only guards the size accounting.
+ */
+class ResponseDiskCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ResponseDiskCache.class);
+
+	private final File dir;
+
+	private final long maxSize;
+
+	private final Striped<Lock> locks = Striped.lock(64);
+
+	// guarded by this
+	private long size = -1;
+
+	ResponseDiskCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	@Nullable
+	byte[] get(String url, String validator) {
+		File file = getFile(url);
+		Lock lock = locks.get(file.getName());
+		lock.lock();
+		try {
+			if (!file.exists())
+				return null;
+			try (DataInputStream is = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+				if (!validator.equals(is.readUTF())) {
+					delete(file);
+					return null;
+				}
+				byte[] body = ByteStreams.toByteArray(is);
+				file.setLastModified(System.currentTimeMillis());
+				return body;
+			} catch (IOException e) {
+				logger.warn("Error reading cached response, discarding it: " + file, e);
+				delete(file);
+				return null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void put(String url, String validator, byte[] body) {
+		File file = getFile(url);
+		File tempFile = null;
+		long delta;
+		try {
+			Files.createDirectories(dir.toPath());
+			tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+			try (DataOutputStream os = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile)))) {
+				os.writeUTF(validator);
+				os.write(body);
+			}
+			Lock lock = locks.get(file.getName());
+			lock.lock();
+			try {
+				delta = -file.length();
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				delta += file.length();
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException e) {
+			logger.warn("Error caching response of " + url, e);
+			if (tempFile != null)
+				tempFile.delete();
+			return;
+		}
+
+		synchronized (this) {
+			if (size < 0)
+				size = computeSize();
+			else
+				size += delta;
+			if (size > maxSize)
+				evict();
+		}
+	}
+
+	/*
+	 * Trim down to 90% of the maximum size, so that eviction does not run on every put
+	 * once the cache is full.
+	 */
+	private synchronized void evict() {
+		List<File> files = listFiles();
+		files.sort(Comparator.comparingLong(File::lastModified));
+		long target = maxSize / 10 * 9;
+		for (File file: files) {
+			if (size <= target)
+				break;
+			delete(file);
+		}
+	}
+
+	private synchronized void delete(File file) {
+		long length = file.length();
+		if (file.delete() && size >= 0)
+			size -= length;
+	}
+
+	private long computeSize() {
+		long total = 0;
+		for (File file: listFiles())
+			total += file.length();
+		return total;
+	}
+
+	private List<File> listFiles() {
+		List<File> files = new ArrayList<>();
+		File[] children = dir.listFiles((d, name) -> name.endsWith(".gz"));
+		if (children != null) {
+			for (File child: children)
+				files.add(child);
+		}
+		return files;
+	}
+
+	private File getFile(String url) {
+		String hash = Hashing.sha256().hashString(normalize(url), StandardCharsets.UTF_8).toString();
+		return new File(dir, hash + ".gz");
+	}
+
+	/*
+	 * Sort query parameters so that equivalent requests share one entry.
+	 */
+	static String normalize(String url) {
+		try {
+			URIBuilder builder = new URIBuilder(url);
+			List<NameValuePair> params = new ArrayList<>(builder.getQueryParams());
+			params.sort(Comparator.comparing(NameValuePair::getName)
+					.thenComparing(it -> String.valueOf(it.getValue())));
+			builder.setParameters(params);
+			builder.setFragment(null);
+			return builder.build().toString();
+		} catch (URISyntaxException e) {
+			return url;
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
+
+import io.onedev.commons.bootstrap.Bootstrap;
+
+/**
+ * Milestones and issues committed by a chunked import of one Redmine project into one
+ * OneDev project, kept in the OneDev site directory until the import completes. Running
+ * the import again reuses milestones and skips issues recorded here, while issues it did
+ * not create are still reported as conflicts.
+ * <p>
+ * Besides Redmine IDs and the numbers of their issues, the marker holds the committed
+ * issues and link changes still referring to issues of later chunks, whose references
+ * are migrated once all issues are committed.
+ */
+class ResumeMarker {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final File file;
+
+	private Set<String> milestones;
+
+	// Redmine ID -> OneDev issue number
+	private Map<Long, Long> issueNumbers;
+
+	private List<Long> unmigratedIssueIds;
+
+	// issue change ID -> old and new Redmine ID of the linked issue
+	private Map<Long, String[]> unresolvedLinkChanges;
+
+	ResumeMarker(File file) {
+		this.file = file;
+	}
+
+	static ResumeMarker of(ImportServer server, String redmineProjectId, Long oneDevProjectId) {
+		String scope = Hashing.sha256().hashString(server.getApiUrl() + "\n" + redmineProjectId,
+				StandardCharsets.UTF_8).toString().substring(0, 16);
+		return new ResumeMarker(new File(Bootstrap.getSiteDir(),
+				"redmine-import/resume/" + oneDevProjectId + "-" + scope + ".json"));
+	}
+
+	synchronized boolean isEmpty() {
+		load();
+		return milestones.isEmpty() && issueNumbers.isEmpty();
+	}
+
+	synchronized boolean hasMilestone(String name) {
+		load();
+		return milestones.contains(name);
+	}
+
+	synchronized void addMilestones(Collection<String> names) {
+		load();
+		milestones.addAll(names);
+		save();
+	}
+
+	/**
+	 * @return number of the OneDev issue committed for specified Redmine issue, or
+	 * 			<tt>null</tt> if it was not committed yet
+	 */
+	@Nullable
+	synchronized Long getIssueNumber(Long oldNumber) {
+		load();
+		return issueNumbers.get(oldNumber);
+	}
+
+	synchronized List<Long> getUnmigratedIssueIds() {
+		load();
+		return new ArrayList<>(unmigratedIssueIds);
+	}
+
+	synchronized Map<Long, String[]> getUnresolvedLinkChanges() {
+		load();
+		return new LinkedHashMap<>(unresolvedLinkChanges);
+	}
+
+	/**
+	 * Record a committed chunk.
+	 *
+	 * @param issueNumbers
+	 * 			Redmine IDs and numbers of issues in the chunk
+	 * @param unmigratedIssueIds
+	 * 			issues of the chunk referring to issues of later chunks
+	 * @param unresolvedLinkChanges
+	 * 			link changes of the chunk referring to issues of later chunks
+	 */
+	synchronized void addChunk(Map<Long, Long> issueNumbers, Collection<Long> unmigratedIssueIds,
+			Map<Long, String[]> unresolvedLinkChanges) {
+		load();
+		this.issueNumbers.putAll(issueNumbers);
+		this.unmigratedIssueIds.addAll(unmigratedIssueIds);
+		this.unresolvedLinkChanges.putAll(unresolvedLinkChanges);
+		save();
+	}
+
+	/**
+	 * Record that references of specified issues were migrated, so they are not migrated
+	 * twice.
+	 */
+	synchronized void removeUnmigrated(Collection<Long> issueIds) {
+		load();
+		unmigratedIssueIds.removeAll(issueIds);
+		save();
+	}
+
+	synchronized void delete() {
+		issueNumbers = null;
+		if (file.exists() && !file.delete())
+			throw new RuntimeException("Unable to delete resume marker: " + file);
+	}
+
+	/*
+	 * A marker which can not be written stops the import, as running it again would not
+	 * know about data committed since.
+	 */
+	private void save() {
+		ObjectNode root = JsonNodeFactory.instance.objectNode();
+		for (String milestone: milestones)
+			root.withArray("milestones").add(milestone);
+		ObjectNode issuesNode = root.putObject("issues");
+		for (Map.Entry<Long, Long> entry: issueNumbers.entrySet())
+			issuesNode.put(String.valueOf(entry.getKey()), entry.getValue());
+		for (Long issueId: unmigratedIssueIds)
+			root.withArray("unmigratedIssues").add(issueId);
+		ObjectNode changesNode = root.putObject("unresolvedLinkChanges");
+		for (Map.Entry<Long, String[]> entry: unresolvedLinkChanges.entrySet()) {
+			ObjectNode changeNode = changesNode.putObject(String.valueOf(entry.getKey()));
+			changeNode.put("old", entry.getValue()[0]);
+			changeNode.put("new", entry.getValue()[1]);
+		}
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			MAPPER.writeValue(tempFile, root);
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw new RuntimeException("Error saving resume marker: " + file, e);
+		}
+	}
+
+	private void load() {
+		if (issueNumbers != null)
+			return;
+		milestones = new LinkedHashSet<>();
+		issueNumbers = new LinkedHashMap<>();
+		unmigratedIssueIds = new ArrayList<>();
+		unresolvedLinkChanges = new LinkedHashMap<>();
+		if (file.exists()) {
+			try {
+				JsonNode root = MAPPER.readTree(file);
+				for (JsonNode milestoneNode: root.path("milestones"))
+					milestones.add(milestoneNode.asText());
+				for (Iterator<Map.Entry<String, JsonNode>> it = root.path("issues").fields(); it.hasNext();) {
+					Map.Entry<String, JsonNode> field = it.next();
+					issueNumbers.put(Long.valueOf(field.getKey()), field.getValue().asLong());
+				}
+				for (JsonNode issueIdNode: root.path("unmigratedIssues"))
+					unmigratedIssueIds.add(issueIdNode.asLong());
+				for (Iterator<Map.Entry<String, JsonNode>> it = root.path("unresolvedLinkChanges").fields(); it.hasNext();) {
+					Map.Entry<String, JsonNode> field = it.next();
+					unresolvedLinkChanges.put(Long.valueOf(field.getKey()), new String[] {
+							field.getValue().path("old").asText(null), field.getValue().path("new").asText(null)});
+				}
+			} catch (IOException|RuntimeException e) {
+				// issues can not be told apart from issues the import did not create
+				issueNumbers = null;
+				throw new RuntimeException("Error reading resume marker: " + file, e);
+			}
+		}
+	}
+
+}
